@@ -0,0 +1,158 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network;
+
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ThreadPerTaskExecutor;
+
+/**
+ * A boss and a worker event loop group that can be shared by
+ * {@link de.ocarthon.core.network.tcp.TCPServer},
+ * {@link de.ocarthon.core.network.tcp.TCPClient} and {@link HttpClient}, so
+ * that a process does not end up with more I/O threads than cores.
+ * Components using shared resources never shut them down, this has to be done
+ * by the owner through {@link #shutdownGracefully()}.<p>
+ * Connections over the native epoll transport, like unix domain sockets,
+ * need epoll event loops. These are created on first use with the same
+ * number of threads as the nio groups.
+ */
+public class EventLoopResources {
+    private static EventLoopResources shared;
+
+    private final NioEventLoopGroup bossGroup;
+    private final NioEventLoopGroup workerGroup;
+    private final int bossThreads;
+    private final int workerThreads;
+    private final String name;
+    private final boolean daemon;
+    private EpollEventLoopGroup epollBossGroup;
+    private EpollEventLoopGroup epollWorkerGroup;
+
+    /**
+     * Creates new event loop groups. The threads are named
+     * {@code <name>-boss-<n>} and {@code <name>-worker-<n>}.
+     *
+     * @param bossThreads   number of threads accepting connections
+     * @param workerThreads number of threads handling I/O of connections
+     * @param name          prefix of the thread names
+     * @param daemon        whether the threads are daemon threads
+     */
+    public EventLoopResources(int bossThreads, int workerThreads, String name, boolean daemon) {
+        if (bossThreads < 1 || workerThreads < 1) {
+            throw new IllegalArgumentException("at least one boss and one worker thread is needed");
+        }
+
+        this.bossThreads = bossThreads;
+        this.workerThreads = workerThreads;
+        this.name = name;
+        this.daemon = daemon;
+        this.bossGroup = new NioEventLoopGroup(bossThreads, new ThreadPerTaskExecutor(
+                new DefaultThreadFactory(name + "-boss", daemon)));
+        this.workerGroup = new NioEventLoopGroup(workerThreads, new ThreadPerTaskExecutor(
+                new DefaultThreadFactory(name + "-worker", daemon)));
+    }
+
+    public EventLoopResources(int bossThreads, int workerThreads, String name) {
+        this(bossThreads, workerThreads, name, false);
+    }
+
+    /**
+     * Returns the resources shared by default. They consist of one boss
+     * thread and one worker thread per core, all threads are daemon threads.
+     *
+     * @return the shared resources
+     */
+    public static synchronized EventLoopResources shared() {
+        if (shared == null || shared.workerGroup.isShuttingDown()) {
+            shared = new EventLoopResources(1, Runtime.getRuntime().availableProcessors(),
+                    "ocarthon", true);
+        }
+
+        return shared;
+    }
+
+    public NioEventLoopGroup getBossGroup() {
+        return bossGroup;
+    }
+
+    public NioEventLoopGroup getWorkerGroup() {
+        return workerGroup;
+    }
+
+    /**
+     * Returns the epoll group accepting connections, its threads are named
+     * {@code <name>-epoll-boss-<n>}
+     *
+     * @return the epoll boss group
+     * @throws IllegalStateException if the native transport is not available
+     */
+    public synchronized EpollEventLoopGroup getEpollBossGroup() {
+        if (epollBossGroup == null) {
+            epollBossGroup = newEpollGroup(bossThreads, "-epoll-boss");
+        }
+
+        return epollBossGroup;
+    }
+
+    /**
+     * Returns the epoll group handling I/O of connections, its threads are
+     * named {@code <name>-epoll-worker-<n>}
+     *
+     * @return the epoll worker group
+     * @throws IllegalStateException if the native transport is not available
+     */
+    public synchronized EpollEventLoopGroup getEpollWorkerGroup() {
+        if (epollWorkerGroup == null) {
+            epollWorkerGroup = newEpollGroup(workerThreads, "-epoll-worker");
+        }
+
+        return epollWorkerGroup;
+    }
+
+    private EpollEventLoopGroup newEpollGroup(int threads, String suffix) {
+        if (!Epoll.isAvailable()) {
+            throw new IllegalStateException("the native epoll transport is not available",
+                    Epoll.unavailabilityCause());
+        }
+
+        return new EpollEventLoopGroup(threads, new ThreadPerTaskExecutor(
+                new DefaultThreadFactory(name + suffix, daemon)));
+    }
+
+    /**
+     * Shuts down all groups
+     *
+     * @return future that completes once the worker group has terminated
+     */
+    public synchronized Future<?> shutdownGracefully() {
+        bossGroup.shutdownGracefully();
+
+        if (epollBossGroup != null) {
+            epollBossGroup.shutdownGracefully();
+        }
+
+        if (epollWorkerGroup != null) {
+            epollWorkerGroup.shutdownGracefully();
+        }
+
+        return workerGroup.shutdownGracefully();
+    }
+}
@@ -29,7 +29,6 @@ import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.ReflectiveChannelFactory;
 import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.http.DefaultHttpRequest;
@@ -59,7 +58,7 @@ import java.util.List;
 import java.util.Map;
 
 public class HttpClient {
-    private static NioEventLoopGroup eventLoopGroup = new NioEventLoopGroup();
+    private static EventLoopResources eventLoopResources;
     private static HttpDataFactory httpDataFactory =
             new DefaultHttpDataFactory(DefaultHttpDataFactory.MINSIZE);
 
@@ -92,10 +91,25 @@ public class HttpClient {
         checkPortAndScheme();
     }
 
-    private static Bootstrap defaultBootstrap() {
+    /**
+     * Sets the event loops used by all http clients created afterwards. By
+     * default the {@link EventLoopResources#shared() shared resources} are used.
+     *
+     * @param resources the event loops to use
+     */
+    public static synchronized void setEventLoopResources(EventLoopResources resources) {
+        eventLoopResources = resources;
+        defaultHttpBootstrap = null;
+    }
+
+    private static synchronized Bootstrap defaultBootstrap() {
         if (defaultHttpBootstrap == null) {
+            if (eventLoopResources == null) {
+                eventLoopResources = EventLoopResources.shared();
+            }
+
             defaultHttpBootstrap = new Bootstrap();
-            defaultHttpBootstrap.group(eventLoopGroup);
+            defaultHttpBootstrap.group(eventLoopResources.getWorkerGroup());
             defaultHttpBootstrap.option(ChannelOption.TCP_NODELAY, true);
             defaultHttpBootstrap.option(ChannelOption.ALLOCATOR,
                     PooledByteBufAllocator.DEFAULT);
@@ -212,6 +226,7 @@ public class HttpClient {
             throw new NullPointerException("key or value is empty or null");
         }
 
+        result[0] = null;
         channel.write(request);
 
         if (bodyReqEncoder.isChunked()) {
@@ -221,7 +236,10 @@ public class HttpClient {
 
         synchronized (result) {
             try {
-                result.wait();
+                // the response may already have arrived, e.g. over loopback
+                while (result[0] == null) {
+                    result.wait();
+                }
             } catch (InterruptedException e) {
                 return null;
             }
@@ -0,0 +1,87 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.capture;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.AttributeKey;
+
+/**
+ * Records the frames of every channel it is installed in. The handler has to
+ * be placed behind the frame decoder, so that it sees every frame as a
+ * single {@link ByteBuf}. Frames are recorded before decompression and
+ * decoding, so a capture can be replayed with {@link CaptureReplayer}
+ * without knowing the codecs. File chunks sent by the
+ * {@link de.ocarthon.core.network.tcp.FileTransferHandler} on plaintext
+ * channels bypass the handler and are not recorded.
+ */
+@ChannelHandler.Sharable
+public class CaptureHandler extends ChannelHandlerAdapter {
+    private static final AttributeKey<Integer> CHANNEL_ID =
+            AttributeKey.valueOf("CaptureHandler.channelId");
+
+    private final CaptureWriter writer;
+
+    public CaptureHandler(CaptureWriter writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        int id = writer.nextChannelId();
+        ctx.attr(CHANNEL_ID).set(id);
+        writer.record(id, CapturedFrame.Type.CONNECT, null);
+        ctx.fireChannelActive();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        Integer id = ctx.attr(CHANNEL_ID).get();
+        if (id != null) {
+            writer.record(id, CapturedFrame.Type.DISCONNECT, null);
+        }
+
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        Integer id = ctx.attr(CHANNEL_ID).get();
+        if (id != null && msg instanceof ByteBuf) {
+            writer.record(id, CapturedFrame.Type.INBOUND, (ByteBuf) msg);
+        }
+
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        Integer id = ctx.attr(CHANNEL_ID).get();
+        if (id != null && msg instanceof ByteBuf) {
+            writer.record(id, CapturedFrame.Type.OUTBOUND, (ByteBuf) msg);
+        }
+
+        ctx.write(msg, promise);
+    }
+
+    public CaptureWriter getWriter() {
+        return writer;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.capture;
+
+import io.netty.buffer.Unpooled;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads the frames of a capture written by {@link CaptureWriter} in the order
+ * they have been recorded.
+ */
+public class CaptureReader implements Closeable {
+    private static final CapturedFrame.Type[] TYPES = CapturedFrame.Type.values();
+
+    private final File[] files;
+    private int nextFile;
+    private ByteBuffer segment;
+
+    /**
+     * @param directory the directory of the capture
+     * @throws IOException if the directory does not contain a capture
+     */
+    public CaptureReader(File directory) throws IOException {
+        this.files = directory.listFiles((dir, name) -> name.endsWith(CaptureWriter.SUFFIX));
+
+        if (files == null || files.length == 0) {
+            throw new IOException("no capture in " + directory);
+        }
+
+        Arrays.sort(files);
+    }
+
+    /**
+     * @return the next frame or null if the end of the capture has been
+     * reached
+     * @throws IOException if a segment can not be read
+     */
+    public CapturedFrame next() throws IOException {
+        while (true) {
+            if (segment != null && segment.remaining() >= CaptureWriter.HEADER_LENGTH) {
+                int length = segment.getInt(segment.position());
+
+                if (length >= CaptureWriter.HEADER_LENGTH && length <= segment.remaining()) {
+                    segment.getInt();
+                    long timestamp = segment.getLong();
+                    int channelId = segment.getInt();
+                    CapturedFrame.Type type = TYPES[segment.get()];
+
+                    ByteBuffer data = segment.slice();
+                    data.limit(length - CaptureWriter.HEADER_LENGTH);
+                    segment.position(segment.position() + data.limit());
+
+                    return new CapturedFrame(timestamp, channelId, type,
+                            Unpooled.wrappedBuffer(data));
+                }
+            }
+
+            if (nextFile >= files.length) {
+                segment = null;
+                return null;
+            }
+
+            try (RandomAccessFile file = new RandomAccessFile(files[nextFile++], "r")) {
+                segment = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        segment = null;
+        nextFile = files.length;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.capture;
+
+import de.ocarthon.core.network.EventLoopResources;
+import de.ocarthon.core.network.tcp.TCPClient;
+import de.ocarthon.core.network.tcp.TCPListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.ReferenceCountUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays the inbound frames of a server side capture against a server. Every
+ * captured connection is opened as a {@link TCPClient} and its frames are
+ * sent unchanged at the captured times, divided by a speed factor. Frames
+ * sent by the server are discarded.
+ */
+public class CaptureReplayer {
+    private final File directory;
+    private final boolean useTls;
+
+    /**
+     * @param directory the directory of the capture
+     * @param useTls    whether the replayed connections are encrypted
+     */
+    public CaptureReplayer(File directory, boolean useTls) {
+        this.directory = directory;
+        this.useTls = useTls;
+    }
+
+    /**
+     * Replays the capture and blocks until the last frame has been sent.
+     *
+     * @param host  host of the server
+     * @param port  port of the server
+     * @param speed factor by which the replay is faster than the capture,
+     *              1 for the original speed, 0 to send as fast as possible
+     * @return number of frames sent
+     * @throws IOException          if the capture can not be read
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public long replay(String host, int port, double speed) throws IOException, InterruptedException {
+        EventLoopResources resources = new EventLoopResources(1,
+                Runtime.getRuntime().availableProcessors(), "replay", true);
+        Map<Integer, TCPClient> clients = new HashMap<>();
+        long sent = 0;
+
+        try (CaptureReader reader = new CaptureReader(directory)) {
+            long start = System.nanoTime();
+            long first = -1;
+            CapturedFrame frame;
+
+            while ((frame = reader.next()) != null) {
+                if (first < 0) {
+                    first = frame.getTimestamp();
+                }
+
+                if (speed > 0) {
+                    long due = start + (long) ((frame.getTimestamp() - first) / speed);
+                    long wait;
+
+                    while ((wait = due - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+
+                        if (Thread.interrupted()) {
+                            throw new InterruptedException();
+                        }
+                    }
+                }
+
+                switch (frame.getType()) {
+                    case CONNECT:
+                        TCPClient client = new TCPClient(useTls, resources);
+                        client.setListener(DiscardListener.INSTANCE);
+                        client.initBootstrap();
+
+                        if (client.connect(host, port)) {
+                            clients.put(frame.getChannelId(), client);
+                        }
+                        break;
+                    case INBOUND:
+                        TCPClient target = clients.get(frame.getChannelId());
+
+                        if (target != null) {
+                            target.getChannel().writeAndFlush(frame.getData());
+                            sent++;
+                        }
+                        break;
+                    case DISCONNECT:
+                        TCPClient closed = clients.remove(frame.getChannelId());
+
+                        if (closed != null) {
+                            closed.close();
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            for (TCPClient client : clients.values()) {
+                client.close();
+            }
+
+            resources.shutdownGracefully().awaitUninterruptibly();
+        }
+
+        return sent;
+    }
+
+    private static class DiscardListener implements TCPListener {
+        private static final DiscardListener INSTANCE = new DiscardListener();
+
+        @Override
+        public void onClientConnect(ChannelHandlerContext ctx) {
+        }
+
+        @Override
+        public void onClientDisconnect(ChannelHandlerContext ctx) {
+        }
+
+        @Override
+        public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+            ReferenceCountUtil.release(message);
+        }
+
+        @Override
+        public void onExceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.capture;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Appends frames to a capture consisting of memory mapped segment files in a
+ * directory. Writers claim space in the current segment with a single atomic
+ * add and copy the frame into the mapping, so capturing needs neither locks
+ * nor system calls except when a new segment is started.<p>
+ * Each record consists of its total length (int), a timestamp in nanoseconds
+ * since the start of the capture (long), the connection id (int), the
+ * {@link CapturedFrame.Type} (byte) and the frame. The unused end of a
+ * segment stays zero. A capture should only be read with
+ * {@link CaptureReader} after the writer has been closed.
+ */
+public class CaptureWriter implements Closeable {
+    static final String SUFFIX = ".cap";
+    static final int HEADER_LENGTH = 4 + 8 + 4 + 1;
+
+    private final File directory;
+    private final int segmentSize;
+    private final long start = System.nanoTime();
+    private final AtomicInteger channelIds = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final List<Segment> segments = new ArrayList<>();
+    private volatile Segment current;
+    private volatile boolean closed;
+
+    /**
+     * @param directory   directory for the segment files, it is created if
+     *                    needed and must not contain a capture
+     * @param segmentSize size of a segment file in bytes
+     * @throws IOException if the first segment can not be created
+     */
+    public CaptureWriter(File directory, int segmentSize) throws IOException {
+        if (segmentSize < HEADER_LENGTH + 65535) {
+            throw new IllegalArgumentException("segments must be able to hold a full frame");
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("could not create " + directory);
+        }
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.current = newSegment();
+    }
+
+    /**
+     * @return a new connection id
+     */
+    public int nextChannelId() {
+        return channelIds.incrementAndGet();
+    }
+
+    /**
+     * Appends a frame. Can be called from any thread.
+     *
+     * @param channelId id of the connection
+     * @param type      type of the frame
+     * @param data      the frame, it is not modified or released
+     */
+    public void record(int channelId, CapturedFrame.Type type, ByteBuf data) {
+        long timestamp = System.nanoTime() - start;
+        int length = HEADER_LENGTH + (data != null ? data.readableBytes() : 0);
+
+        if (length > segmentSize) {
+            dropped.incrementAndGet();
+            return;
+        }
+
+        while (!closed) {
+            Segment segment = current;
+            long position = segment.position.getAndAdd(length);
+
+            if (position + length <= segmentSize) {
+                segment.write((int) position, length, timestamp, channelId, type, data);
+                return;
+            }
+
+            try {
+                roll(segment);
+            } catch (IOException e) {
+                dropped.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return number of frames that could not be recorded
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Flushes all segments to disk and stops recording
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        for (Segment segment : segments) {
+            segment.buffer.force();
+            segment.file.close();
+        }
+    }
+
+    private synchronized void roll(Segment full) throws IOException {
+        if (current == full && !closed) {
+            current = newSegment();
+        }
+    }
+
+    private Segment newSegment() throws IOException {
+        File file = new File(directory, String.format("%08d%s", segments.size(), SUFFIX));
+
+        if (file.exists()) {
+            throw new IOException(file + " already exists");
+        }
+
+        Segment segment = new Segment(new RandomAccessFile(file, "rw"), segmentSize);
+        segments.add(segment);
+        return segment;
+    }
+
+    private static class Segment {
+        private final RandomAccessFile file;
+        private final MappedByteBuffer buffer;
+        private final AtomicLong position = new AtomicLong();
+
+        Segment(RandomAccessFile file, int size) throws IOException {
+            this.file = file;
+            this.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        void write(int position, int length, long timestamp, int channelId,
+                   CapturedFrame.Type type, ByteBuf data) {
+            ByteBuffer target = buffer.duplicate();
+            target.limit(position + length).position(position);
+            target.putInt(length)
+                    .putLong(timestamp)
+                    .putInt(channelId)
+                    .put((byte) type.ordinal());
+
+            if (data != null) {
+                data.getBytes(data.readerIndex(), target);
+            }
+        }
+    }
+}
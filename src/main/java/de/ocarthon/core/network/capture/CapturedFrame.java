@@ -0,0 +1,84 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.capture;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * A frame read from a capture
+ */
+public class CapturedFrame {
+    private final long timestamp;
+    private final int channelId;
+    private final Type type;
+    private final ByteBuf data;
+
+    public CapturedFrame(long timestamp, int channelId, Type type, ByteBuf data) {
+        this.timestamp = timestamp;
+        this.channelId = channelId;
+        this.type = type;
+        this.data = data;
+    }
+
+    /**
+     * @return nanoseconds since the capture has been started
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return id of the connection, unique within a capture
+     */
+    public int getChannelId() {
+        return channelId;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the frame without length field. The buffer is backed by the
+     * mapped file and does not have to be released.
+     */
+    public ByteBuf getData() {
+        return data;
+    }
+
+    public enum Type {
+        /**
+         * A frame received by the capturing side
+         */
+        INBOUND,
+
+        /**
+         * A frame sent by the capturing side
+         */
+        OUTBOUND,
+
+        /**
+         * A connection has been opened, no data
+         */
+        CONNECT,
+
+        /**
+         * A connection has been closed, no data
+         */
+        DISCONNECT
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.codec.flatbuffer;
+
+import com.google.flatbuffers.FlatBufferBuilder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.IllegalReferenceCountException;
+import io.netty.util.Recycler;
+import io.netty.util.ReferenceCounted;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A {@link FlatBufferBuilder} that builds directly into memory of a
+ * {@link ByteBufAllocator}, usually the pooled allocator of a channel.
+ * {@link FlatBufferCodec} sends the finished buffer without copying it.<p>
+ * The builder is reference counted like the buffer it owns. The encoder
+ * releases it once the data has been handed over, and a builder that is
+ * dropped unsent, e.g. by a rejected write, is released like any other
+ * message. Once released the builder must not be used anymore, builders
+ * taken from a {@link FlatBufferBuilderPool} are returned to the pool at
+ * that point.
+ */
+public class ByteBufFlatBufferBuilder extends FlatBufferBuilder implements ReferenceCounted {
+    private static final AtomicIntegerFieldUpdater<ByteBufFlatBufferBuilder> REF_CNT =
+            AtomicIntegerFieldUpdater.newUpdater(ByteBufFlatBufferBuilder.class, "refCnt");
+
+    private final Factory factory;
+    private final FlatBufferBuilderPool pool;
+    private final Recycler.Handle<ByteBufFlatBufferBuilder> handle;
+    private volatile int refCnt = 1;
+    private int sentSize;
+
+    /**
+     * @param allocator   allocator for the buffer
+     * @param initialSize initial size of the buffer, it grows if needed
+     */
+    public ByteBufFlatBufferBuilder(ByteBufAllocator allocator, int initialSize) {
+        this(new Factory(allocator), initialSize);
+    }
+
+    private ByteBufFlatBufferBuilder(Factory factory, int initialSize) {
+        super(initialSize, factory);
+        this.factory = factory;
+        this.pool = null;
+        this.handle = null;
+    }
+
+    ByteBufFlatBufferBuilder(ByteBufAllocator allocator, FlatBufferBuilderPool pool,
+                             Recycler.Handle<ByteBufFlatBufferBuilder> handle) {
+        this(new Factory(allocator), pool, handle);
+    }
+
+    private ByteBufFlatBufferBuilder(Factory factory, FlatBufferBuilderPool pool,
+                                     Recycler.Handle<ByteBufFlatBufferBuilder> handle) {
+        super(1, factory);
+        this.factory = factory;
+        this.pool = pool;
+        this.handle = handle;
+    }
+
+    /**
+     * Starts a new buffer of the given size, used when the builder is taken
+     * from the pool
+     */
+    void reset(int initialSize) {
+        release0();
+        refCnt = 1;
+        sentSize = 0;
+        init(factory.newByteBuffer(initialSize), factory);
+    }
+
+    /**
+     * Hands the finished data over to the caller. The builder still has to
+     * be released afterwards.
+     *
+     * @return the finished data, the caller has to release it
+     */
+    public ByteBuf toByteBuf() {
+        if (factory.current == null) {
+            throw new IllegalStateException("the data has already been handed over");
+        }
+
+        ByteBuffer data = dataBuffer();
+        ByteBuf buf = factory.current.slice(data.position(), data.remaining());
+        factory.releasePrevious();
+        factory.current = null;
+        sentSize = buf.readableBytes();
+        return buf;
+    }
+
+    @Override
+    public int refCnt() {
+        return refCnt;
+    }
+
+    @Override
+    public ByteBufFlatBufferBuilder retain() {
+        return retain(1);
+    }
+
+    @Override
+    public ByteBufFlatBufferBuilder retain(int increment) {
+        if (increment < 1) {
+            throw new IllegalArgumentException("increment: " + increment);
+        }
+
+        for (;;) {
+            int current = refCnt;
+            if (current == 0 || current > Integer.MAX_VALUE - increment) {
+                throw new IllegalReferenceCountException(current, increment);
+            }
+
+            if (REF_CNT.compareAndSet(this, current, current + increment)) {
+                return this;
+            }
+        }
+    }
+
+    @Override
+    public ByteBufFlatBufferBuilder touch() {
+        return this;
+    }
+
+    @Override
+    public ByteBufFlatBufferBuilder touch(Object hint) {
+        return this;
+    }
+
+    /**
+     * Releases the buffer, unless it has been handed over, and returns a
+     * pooled builder to its pool once the reference count reaches zero
+     */
+    @Override
+    public boolean release() {
+        return release(1);
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        if (decrement < 1) {
+            throw new IllegalArgumentException("decrement: " + decrement);
+        }
+
+        for (;;) {
+            int current = refCnt;
+            if (current < decrement) {
+                throw new IllegalReferenceCountException(current, -decrement);
+            }
+
+            if (REF_CNT.compareAndSet(this, current, current - decrement)) {
+                if (current == decrement) {
+                    deallocate();
+                    return true;
+                }
+
+                return false;
+            }
+        }
+    }
+
+    private void deallocate() {
+        release0();
+
+        if (pool != null) {
+            pool.recycle(this, handle, sentSize);
+        }
+    }
+
+    private void release0() {
+        factory.releasePrevious();
+
+        if (factory.current != null) {
+            factory.current.release();
+            factory.current = null;
+        }
+    }
+
+    /**
+     * Allocates the buffers of one builder. When the builder grows, it copies
+     * the old buffer into a new one right after allocating it, so the old
+     * buffer is released on the next allocation or when the builder is done.
+     */
+    private static class Factory implements ByteBufferFactory {
+        private final ByteBufAllocator allocator;
+        private ByteBuf current;
+        private ByteBuf previous;
+
+        Factory(ByteBufAllocator allocator) {
+            this.allocator = allocator;
+        }
+
+        @Override
+        public ByteBuffer newByteBuffer(int capacity) {
+            releasePrevious();
+            previous = current;
+            current = allocator.buffer(capacity, capacity);
+            return current.nioBuffer(0, capacity).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void releasePrevious() {
+            if (previous != null) {
+                previous.release();
+                previous = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.codec.flatbuffer;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.Recycler;
+
+/**
+ * Recycles {@link ByteBufFlatBufferBuilder}s. A builder taken with
+ * {@link #acquire()} returns to the pool when it is released, which the
+ * encoder does once it has sent the data.<p>
+ * New buffers start with the size of the largest recently built message,
+ * so builders usually do not have to grow and copy their buffer. The size
+ * is halved again if messages stay below a quarter of it for a while.
+ */
+public class FlatBufferBuilderPool {
+    public static final FlatBufferBuilderPool DEFAULT =
+            new FlatBufferBuilderPool(PooledByteBufAllocator.DEFAULT, 64, 1 << 16);
+
+    private static final int SHRINK_AFTER = 256;
+
+    private final ByteBufAllocator allocator;
+    private final int minSize;
+    private final int maxSize;
+    private final Recycler<ByteBufFlatBufferBuilder> recycler =
+            new Recycler<ByteBufFlatBufferBuilder>() {
+                @Override
+                protected ByteBufFlatBufferBuilder newObject(
+                        Handle<ByteBufFlatBufferBuilder> handle) {
+                    return new ByteBufFlatBufferBuilder(allocator, FlatBufferBuilderPool.this,
+                            handle);
+                }
+            };
+
+    // updated without synchronization, lost updates only delay the adaption
+    private volatile int initialSize;
+    private int smallMessages;
+
+    /**
+     * @param allocator allocator of the buffers
+     * @param minSize   smallest initial buffer size
+     * @param maxSize   largest initial buffer size, larger messages grow
+     *                  their buffer
+     */
+    public FlatBufferBuilderPool(ByteBufAllocator allocator, int minSize, int maxSize) {
+        if (minSize < 1 || maxSize < minSize) {
+            throw new IllegalArgumentException("invalid sizes: " + minSize + ", " + maxSize);
+        }
+
+        this.allocator = allocator;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.initialSize = minSize;
+    }
+
+    /**
+     * @return a builder with an empty buffer
+     */
+    public ByteBufFlatBufferBuilder acquire() {
+        ByteBufFlatBufferBuilder builder = recycler.get();
+        builder.reset(initialSize);
+        return builder;
+    }
+
+    /**
+     * @return the size new buffers start with
+     */
+    public int getInitialSize() {
+        return initialSize;
+    }
+
+    void recycle(ByteBufFlatBufferBuilder builder, Recycler.Handle<ByteBufFlatBufferBuilder> handle,
+                 int size) {
+        int current = initialSize;
+
+        if (size > current) {
+            initialSize = Math.min(maxSize, Integer.highestOneBit(size - 1) << 1);
+            smallMessages = 0;
+        } else if (size > 0 && size < current / 4 && ++smallMessages >= SHRINK_AFTER) {
+            initialSize = Math.max(minSize, current / 2);
+            smallMessages = 0;
+        }
+
+        recycler.recycle(builder, handle);
+    }
+}
@@ -23,31 +23,178 @@ import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageCodec;
 
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.function.Function;
 
-public class FlatBufferCodec extends MessageToMessageCodec<ByteBuf, FlatBufferBuilder> {
-    private Method method;
+/**
+ * Encodes {@link FlatBufferBuilder}s and decodes frames to the root table of
+ * a schema.<p>
+ * The decoder releases a frame right after decoding it, before the table
+ * reaches the listener, and a pooled frame can be reused by then. So by
+ * default the frame is copied to the heap and the table reads from the
+ * copy. Retaining mode avoids the copy and passes on a {@link FlatMessage}
+ * that keeps the frame until the receiver releases it.
+ *
+ * @param <T> the root table
+ */
+public class FlatBufferCodec<T extends Table> extends MessageToMessageCodec<ByteBuf, FlatBufferBuilder> {
+    private final Function<ByteBuffer, T> rootAccessor;
+    private final boolean retain;
+    private FlatBufferVerifier.TableVerifier verifier;
 
-    public FlatBufferCodec(Class<? extends Table> rootClass) {
-        String methodName = "getRootAs" + rootClass.getSimpleName();
+    /**
+     * Creates a codec that decodes with the generated
+     * {@code getRootAs<Table>(ByteBuffer)} method of the root class.
+     *
+     * @param rootClass the root table
+     */
+    public FlatBufferCodec(Class<T> rootClass) {
+        this(rootClass, false);
+    }
 
-        try {
-            method = rootClass.getDeclaredMethod(methodName, ByteBuffer.class);
-            method.setAccessible(true);
-        } catch (NoSuchMethodException e) {
-            throw new IllegalArgumentException("Invalid FlatBuffer table");
-        }
+    /**
+     * @param rootClass the root table
+     * @param retain    whether to decode to {@link FlatMessage}s
+     */
+    public FlatBufferCodec(Class<T> rootClass, boolean retain) {
+        this(rootAccessor(rootClass), retain);
+    }
+
+    /**
+     * @param rootAccessor function returning the root table of a buffer,
+     *                     usually {@code Table::getRootAsTable}
+     */
+    public FlatBufferCodec(Function<ByteBuffer, T> rootAccessor) {
+        this(rootAccessor, false);
     }
 
+    /**
+     * @param rootAccessor function returning the root table of a buffer
+     * @param retain       whether to decode to {@link FlatMessage}s
+     */
+    public FlatBufferCodec(Function<ByteBuffer, T> rootAccessor, boolean retain) {
+        this.rootAccessor = rootAccessor;
+        this.retain = retain;
+    }
+
+    /**
+     * Verifies received frames before decoding them, except on channels
+     * marked as trusted with {@link FlatBufferVerifier#setTrusted}
+     *
+     * @param verifier checks the fields of the root table, usually
+     *                 {@link FlatBufferVerifier#STRUCTURE}, or null to
+     *                 disable verification
+     */
+    public void setVerifier(FlatBufferVerifier.TableVerifier verifier) {
+        this.verifier = verifier;
+    }
+
+    /**
+     * A {@link ByteBufFlatBufferBuilder} hands over its buffer without
+     * copying it. The finished data of other builders is copied once, so
+     * they can be cleared and reused right after the write.
+     */
     @Override
     protected void encode(ChannelHandlerContext ctx, FlatBufferBuilder msg, List<Object> out) throws Exception {
-        out.add(Unpooled.copiedBuffer(msg.sizedByteArray()));
+        if (msg instanceof ByteBufFlatBufferBuilder) {
+            out.add(((ByteBufFlatBufferBuilder) msg).toByteBuf());
+        } else {
+            out.add(Unpooled.copiedBuffer(msg.dataBuffer()));
+        }
     }
 
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
-        out.add(method.invoke(null, msg.nioBuffer()));
+        ByteBuffer bb = frameBuffer(msg, retain);
+        if (verifier != null && !FlatBufferVerifier.isTrusted(ctx)) {
+            FlatBufferVerifier.verify(bb, verifier);
+        }
+
+        T table = rootAccessor.apply(bb);
+
+        if (retain) {
+            out.add(new FlatMessage<>(table, msg.retain()));
+        } else {
+            out.add(table);
+        }
+    }
+
+    /**
+     * @return the readable bytes of the frame, copied to the heap unless the
+     * frame is retained
+     */
+    static ByteBuffer frameBuffer(ByteBuf frame, boolean retain) {
+        if (retain) {
+            return frame.nioBuffer();
+        }
+
+        byte[] copy = new byte[frame.readableBytes()];
+        frame.getBytes(frame.readerIndex(), copy);
+        return ByteBuffer.wrap(copy);
+    }
+
+    /**
+     * Binds the {@code getRootAs} method of a table to a function. Public
+     * tables get a function generated by the {@link LambdaMetafactory}, which
+     * is as fast as a method reference. Other tables are called through a
+     * method handle.
+     */
+    @SuppressWarnings("unchecked")
+    static <T extends Table> Function<ByteBuffer, T> rootAccessor(Class<T> rootClass) {
+        String methodName = "getRootAs" + rootClass.getSimpleName();
+        MethodType type = MethodType.methodType(rootClass, ByteBuffer.class);
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle handle;
+
+        try {
+            Method method = rootClass.getDeclaredMethod(methodName, ByteBuffer.class);
+            method.setAccessible(true);
+            handle = lookup.unreflect(method);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalArgumentException("Invalid FlatBuffer table");
+        }
+
+        if (isVisible(rootClass, methodName, type)) {
+            try {
+                CallSite site = LambdaMetafactory.metafactory(lookup, "apply",
+                        MethodType.methodType(Function.class),
+                        MethodType.methodType(Object.class, Object.class), handle, type);
+                return (Function<ByteBuffer, T>) site.getTarget().invokeExact();
+            } catch (Throwable e) {
+                // fall back to the method handle
+            }
+        }
+
+        MethodHandle generic = handle.asType(MethodType.methodType(Table.class, ByteBuffer.class));
+        return buffer -> {
+            try {
+                return (T) (Table) generic.invokeExact(buffer);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    /**
+     * A generated lambda calls the method directly, so it has to be public
+     * and its class has to be loaded by a class loader visible to this class
+     */
+    private static boolean isVisible(Class<?> rootClass, String methodName, MethodType type) {
+        try {
+            MethodHandles.publicLookup().findStatic(rootClass, methodName, type);
+            return Class.forName(rootClass.getName(), false,
+                    FlatBufferCodec.class.getClassLoader()) == rootClass;
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
     }
 }
@@ -0,0 +1,109 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.codec.flatbuffer;
+
+import com.google.flatbuffers.Table;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Assigns type ids to the root tables carried by a
+ * {@link TypedFlatBufferCodec}. Both sides of a connection have to register
+ * the same ids. Small ids are sent in one byte, ids up to
+ * {@link #MAX_TYPE_ID} in two.<p>
+ * Decoders are looked up in an array indexed by the type id and the ids of
+ * classes are cached in a {@link ClassValue}. A registry can be shared by
+ * the codecs of all channels.
+ */
+public class FlatBufferTypeRegistry {
+    public static final int MAX_TYPE_ID = (1 << 14) - 1;
+
+    private final Map<Class<?>, Integer> ids = new ConcurrentHashMap<>();
+    private final ClassValue<Integer> idCache = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            Integer id = ids.get(type);
+            return id != null ? id : -1;
+        }
+    };
+
+    private volatile Function<ByteBuffer, ? extends Table>[] decoders = newDecoders(0);
+
+    /**
+     * Registers a root table that is decoded with its generated
+     * {@code getRootAs<Table>(ByteBuffer)} method
+     *
+     * @param id   the type id
+     * @param type the root table
+     */
+    public <T extends Table> void register(int id, Class<T> type) {
+        register(id, type, FlatBufferCodec.rootAccessor(type));
+    }
+
+    /**
+     * @param id           the type id
+     * @param type         the root table
+     * @param rootAccessor function returning the root table of a buffer
+     */
+    public synchronized <T extends Table> void register(int id, Class<T> type,
+                                                        Function<ByteBuffer, T> rootAccessor) {
+        if (id < 0 || id > MAX_TYPE_ID) {
+            throw new IllegalArgumentException("type id out of range: " + id);
+        }
+
+        Function<ByteBuffer, ? extends Table>[] current = decoders;
+        if ((id < current.length && current[id] != null) || ids.containsKey(type)) {
+            throw new IllegalArgumentException(type.getName() + " or type id " + id
+                    + " is already registered");
+        }
+
+        Function<ByteBuffer, ? extends Table>[] updated =
+                Arrays.copyOf(current, Math.max(current.length, id + 1));
+        updated[id] = rootAccessor;
+
+        ids.put(type, id);
+        idCache.remove(type);
+        decoders = updated;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Function<ByteBuffer, ? extends Table>[] newDecoders(int length) {
+        return (Function<ByteBuffer, ? extends Table>[]) new Function<?, ?>[length];
+    }
+
+    /**
+     * @param type the root table
+     * @return the type id or -1 if the type is not registered
+     */
+    public int getTypeId(Class<?> type) {
+        return idCache.get(type);
+    }
+
+    /**
+     * @param id the type id
+     * @return the function decoding the type or null if the id is not
+     * registered
+     */
+    public Function<ByteBuffer, ? extends Table> getDecoder(int id) {
+        Function<ByteBuffer, ? extends Table>[] current = decoders;
+        return id >= 0 && id < current.length ? current[id] : null;
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.codec.flatbuffer;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Checks that the offsets of a received FlatBuffer stay inside the frame,
+ * so that reading the table cannot run past its end. The check walks the
+ * root table and its vtable once. The width of fields and the data they
+ * point to, like strings, vectors or nested tables, depend on the schema
+ * and are checked by a {@link TableVerifier} using the field methods of
+ * this class.<p>
+ * A FlatBuffer may point to the same table several times, so the number
+ * of tables visited by one verification and their nesting depth are
+ * limited.<p>
+ * Channels marked as trusted skip the verification, e.g. connections
+ * between internal services.
+ */
+public final class FlatBufferVerifier {
+    public static final AttributeKey<Boolean> TRUSTED =
+            AttributeKey.valueOf(FlatBufferVerifier.class, "trusted");
+
+    /**
+     * Checks only the structure of the root table
+     */
+    public static final TableVerifier STRUCTURE = (bb, tablePos) -> {
+    };
+
+    /**
+     * Maximum nesting depth of tables, including the root table
+     */
+    public static final int MAX_DEPTH = 64;
+
+    /**
+     * Maximum number of tables visited by one verification
+     */
+    public static final int MAX_TABLES = 1_000_000;
+
+    private static final ThreadLocal<Walk> WALK = ThreadLocal.withInitial(Walk::new);
+
+    private FlatBufferVerifier() {
+    }
+
+    /**
+     * Checks the fields of a verified table that point to further data
+     */
+    @FunctionalInterface
+    public interface TableVerifier {
+        /**
+         * @param bb       the buffer
+         * @param tablePos absolute position of the table
+         * @throws CorruptedFrameException if a field is invalid
+         */
+        void verify(ByteBuffer bb, int tablePos);
+    }
+
+    /**
+     * Marks a channel as trusted, its frames are not verified
+     */
+    public static void setTrusted(Channel channel, boolean trusted) {
+        channel.attr(TRUSTED).set(trusted);
+    }
+
+    public static boolean isTrusted(Channel channel) {
+        Attribute<Boolean> attr = channel.attr(TRUSTED);
+        return attr.get() == Boolean.TRUE;
+    }
+
+    static boolean isTrusted(ChannelHandlerContext ctx) {
+        return ctx != null && isTrusted(ctx.channel());
+    }
+
+    /**
+     * Verifies the root table and passes it to the table verifier
+     *
+     * @param bb       the buffer, from its position to its limit
+     * @param verifier checks the fields of the root table
+     * @return absolute position of the root table
+     * @throws CorruptedFrameException if the buffer is invalid
+     */
+    public static int verify(ByteBuffer bb, TableVerifier verifier) {
+        bb.order(ByteOrder.LITTLE_ENDIAN);
+        checkRange(bb, bb.position(), 4);
+        int root = verifyOffset(bb, bb.position());
+
+        Walk walk = WALK.get();
+        boolean active = walk.active;
+        int depth = walk.depth;
+        int tables = walk.tables;
+
+        walk.active = true;
+        walk.depth = 0;
+        walk.tables = 0;
+        try {
+            verifyTable(bb, root);
+            verifyNested(bb, root, verifier, walk);
+        } finally {
+            walk.active = active;
+            walk.depth = depth;
+            walk.tables = tables;
+        }
+
+        return root;
+    }
+
+    /**
+     * Checks that the table, its vtable and the first byte of every field
+     * are inside the buffer. Wider fields are checked by
+     * {@link #verifyField} or the other field methods. During
+     * {@link #verify} the table counts towards {@link #MAX_TABLES} and
+     * {@link #MAX_DEPTH}.
+     *
+     * @param bb       the buffer
+     * @param tablePos absolute position of the table
+     * @throws CorruptedFrameException if the table is invalid
+     */
+    public static void verifyTable(ByteBuffer bb, int tablePos) {
+        Walk walk = WALK.get();
+        if (walk.active) {
+            if (++walk.tables > MAX_TABLES) {
+                throw new CorruptedFrameException("more than " + MAX_TABLES + " tables");
+            } else if (walk.depth >= MAX_DEPTH) {
+                throw new CorruptedFrameException("tables nested deeper than " + MAX_DEPTH);
+            }
+        }
+
+        checkRange(bb, tablePos, 4);
+
+        long vtable = (long) tablePos - bb.getInt(tablePos);
+        checkRange(bb, vtable, 4);
+
+        int vtableLength = bb.getShort((int) vtable);
+        int tableLength = bb.getShort((int) vtable + 2);
+        if (vtableLength < 4 || (vtableLength & 1) != 0 || tableLength < 4) {
+            throw new CorruptedFrameException("invalid vtable");
+        }
+
+        checkRange(bb, vtable, vtableLength);
+        checkRange(bb, tablePos, tableLength);
+
+        for (int i = 4; i < vtableLength; i += 2) {
+            int field = bb.getShort((int) vtable + i);
+            if (field < 0 || field >= tableLength || (field > 0 && field < 4)) {
+                throw new CorruptedFrameException("field offset outside of table: " + field);
+            }
+        }
+    }
+
+    /**
+     * Checks that a scalar or struct field fits into the table
+     *
+     * @param bb           the buffer
+     * @param tablePos     absolute position of a verified table
+     * @param vtableOffset offset of the field in the vtable, as used by the
+     *                     generated code
+     * @param size         size of the field
+     */
+    public static void verifyField(ByteBuffer bb, int tablePos, int vtableOffset, int size) {
+        fieldPosition(bb, tablePos, vtableOffset, size);
+    }
+
+    /**
+     * Checks a string field, including its null terminator
+     *
+     * @param bb           the buffer
+     * @param tablePos     absolute position of a verified table
+     * @param vtableOffset offset of the field in the vtable
+     */
+    public static void verifyString(ByteBuffer bb, int tablePos, int vtableOffset) {
+        int pos = fieldPosition(bb, tablePos, vtableOffset, 4);
+        if (pos != 0) {
+            verifyStringAt(bb, verifyOffset(bb, pos));
+        }
+    }
+
+    /**
+     * Checks a vector field of scalars or structs
+     *
+     * @param bb           the buffer
+     * @param tablePos     absolute position of a verified table
+     * @param vtableOffset offset of the field in the vtable
+     * @param elementSize  size of one element
+     * @return number of elements, 0 if the field is not set
+     */
+    public static int verifyVector(ByteBuffer bb, int tablePos, int vtableOffset, int elementSize) {
+        int pos = fieldPosition(bb, tablePos, vtableOffset, 4);
+        if (pos == 0) {
+            return 0;
+        }
+
+        return (int) verifyLength(bb, verifyOffset(bb, pos), elementSize);
+    }
+
+    /**
+     * Checks a vector field of strings and every string in it
+     *
+     * @param bb           the buffer
+     * @param tablePos     absolute position of a verified table
+     * @param vtableOffset offset of the field in the vtable
+     * @return number of strings, 0 if the field is not set
+     */
+    public static int verifyVectorOfStrings(ByteBuffer bb, int tablePos, int vtableOffset) {
+        int pos = fieldPosition(bb, tablePos, vtableOffset, 4);
+        if (pos == 0) {
+            return 0;
+        }
+
+        int vector = verifyOffset(bb, pos);
+        int length = (int) verifyLength(bb, vector, 4);
+        for (int i = 0; i < length; i++) {
+            verifyStringAt(bb, verifyOffset(bb, vector + 4 + i * 4));
+        }
+
+        return length;
+    }
+
+    /**
+     * Checks a vector field of tables, every table in it and passes them to
+     * the table verifier
+     *
+     * @param bb           the buffer
+     * @param tablePos     absolute position of a verified table
+     * @param vtableOffset offset of the field in the vtable
+     * @param verifier     checks the fields of the tables in the vector
+     * @return number of tables, 0 if the field is not set
+     */
+    public static int verifyVectorOfTables(ByteBuffer bb, int tablePos, int vtableOffset,
+                                           TableVerifier verifier) {
+        int pos = fieldPosition(bb, tablePos, vtableOffset, 4);
+        if (pos == 0) {
+            return 0;
+        }
+
+        Walk walk = WALK.get();
+        int vector = verifyOffset(bb, pos);
+        int length = (int) verifyLength(bb, vector, 4);
+        for (int i = 0; i < length; i++) {
+            int table = verifyOffset(bb, vector + 4 + i * 4);
+            verifyTable(bb, table);
+            verifyNested(bb, table, verifier, walk);
+        }
+
+        return length;
+    }
+
+    /**
+     * Checks a nested table field and passes the table to the table verifier
+     *
+     * @param bb           the buffer
+     * @param tablePos     absolute position of a verified table
+     * @param vtableOffset offset of the field in the vtable
+     * @param verifier     checks the fields of the nested table
+     * @return absolute position of the nested table, 0 if the field is not
+     * set
+     */
+    public static int verifyTableField(ByteBuffer bb, int tablePos, int vtableOffset,
+                                       TableVerifier verifier) {
+        int pos = fieldPosition(bb, tablePos, vtableOffset, 4);
+        if (pos == 0) {
+            return 0;
+        }
+
+        int table = verifyOffset(bb, pos);
+        verifyTable(bb, table);
+        verifyNested(bb, table, verifier, WALK.get());
+        return table;
+    }
+
+    /**
+     * Passes a verified table to the table verifier one level deeper
+     */
+    private static void verifyNested(ByteBuffer bb, int tablePos, TableVerifier verifier, Walk walk) {
+        walk.depth++;
+        try {
+            verifier.verify(bb, tablePos);
+        } finally {
+            walk.depth--;
+        }
+    }
+
+    /**
+     * Position of a field in a verified table or 0 if the field is not set
+     *
+     * @throws CorruptedFrameException if the field does not fit into the
+     *                                 table
+     */
+    private static int fieldPosition(ByteBuffer bb, int tablePos, int vtableOffset, int size) {
+        int vtable = tablePos - bb.getInt(tablePos);
+        if (vtableOffset >= bb.getShort(vtable)) {
+            return 0;
+        }
+
+        int field = bb.getShort(vtable + vtableOffset);
+        if (field == 0) {
+            return 0;
+        } else if (field + size > bb.getShort(vtable + 2)) {
+            throw new CorruptedFrameException("field exceeds table: " + field);
+        }
+
+        return tablePos + field;
+    }
+
+    /**
+     * Follows an unsigned offset stored at the given position
+     */
+    private static int verifyOffset(ByteBuffer bb, int pos) {
+        checkRange(bb, pos, 4);
+
+        int offset = bb.getInt(pos);
+        if (offset <= 0) {
+            throw new CorruptedFrameException("invalid offset: " + offset);
+        }
+
+        long target = (long) pos + offset;
+        checkRange(bb, target, 4);
+        return (int) target;
+    }
+
+    private static void verifyStringAt(ByteBuffer bb, int string) {
+        long length = verifyLength(bb, string, 1);
+        checkRange(bb, string + 4L + length, 1);
+
+        if (bb.get((int) (string + 4 + length)) != 0) {
+            throw new CorruptedFrameException("string without null terminator");
+        }
+    }
+
+    /**
+     * Checks the length prefixed elements of a vector or string
+     */
+    private static long verifyLength(ByteBuffer bb, int pos, int elementSize) {
+        long length = bb.getInt(pos) & 0xFFFFFFFFL;
+        checkRange(bb, pos + 4L, length * elementSize);
+        return length;
+    }
+
+    private static void checkRange(ByteBuffer bb, long pos, long length) {
+        if (pos < bb.position() || pos + length > bb.limit()) {
+            throw new CorruptedFrameException("offset outside of frame: " + pos);
+        }
+    }
+
+    /**
+     * State of the verification running on the current thread
+     */
+    private static final class Walk {
+        private boolean active;
+        private int depth;
+        private int tables;
+    }
+}
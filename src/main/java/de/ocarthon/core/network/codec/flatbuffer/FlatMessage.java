@@ -0,0 +1,54 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.codec.flatbuffer;
+
+import com.google.flatbuffers.Table;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
+
+/**
+ * A decoded table together with the frame it reads from. The frame stays
+ * valid until the message is released, so the table can be kept beyond the
+ * listener call without copying. The receiver has to release the message.
+ *
+ * @param <T> the root table
+ */
+public class FlatMessage<T extends Table> extends DefaultByteBufHolder {
+    private final T table;
+
+    public FlatMessage(T table, ByteBuf frame) {
+        super(frame);
+        this.table = table;
+    }
+
+    /**
+     * @return the root table, it must not be used after the message has been
+     * released
+     */
+    public T getTable() {
+        if (refCnt() == 0) {
+            throw new IllegalStateException("message has already been released");
+        }
+
+        return table;
+    }
+
+    @Override
+    public String toString() {
+        return "FlatMessage(" + table.getClass().getSimpleName() + ", refCnt: " + refCnt() + ")";
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.codec.flatbuffer;
+
+import com.google.flatbuffers.FlatBufferBuilder;
+import com.google.flatbuffers.Table;
+import io.netty.util.ReferenceCounted;
+
+/**
+ * A finished builder together with the root table it contains, sent through
+ * a {@link TypedFlatBufferCodec}. The reference count is the one of a
+ * {@link ByteBufFlatBufferBuilder}, other builders are not counted.
+ */
+public class TypedFlatBuffer implements ReferenceCounted {
+    private final Class<? extends Table> type;
+    private final FlatBufferBuilder builder;
+
+    public TypedFlatBuffer(Class<? extends Table> type, FlatBufferBuilder builder) {
+        this.type = type;
+        this.builder = builder;
+    }
+
+    public Class<? extends Table> getType() {
+        return type;
+    }
+
+    public FlatBufferBuilder getBuilder() {
+        return builder;
+    }
+
+    @Override
+    public int refCnt() {
+        return builder instanceof ReferenceCounted ? ((ReferenceCounted) builder).refCnt() : 1;
+    }
+
+    @Override
+    public TypedFlatBuffer retain() {
+        return retain(1);
+    }
+
+    @Override
+    public TypedFlatBuffer retain(int increment) {
+        if (builder instanceof ReferenceCounted) {
+            ((ReferenceCounted) builder).retain(increment);
+        }
+
+        return this;
+    }
+
+    @Override
+    public TypedFlatBuffer touch() {
+        return this;
+    }
+
+    @Override
+    public TypedFlatBuffer touch(Object hint) {
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return release(1);
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        return builder instanceof ReferenceCounted && ((ReferenceCounted) builder).release(decrement);
+    }
+}
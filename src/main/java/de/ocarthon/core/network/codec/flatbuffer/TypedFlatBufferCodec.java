@@ -0,0 +1,135 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.codec.flatbuffer;
+
+import com.google.flatbuffers.FlatBufferBuilder;
+import com.google.flatbuffers.Table;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.MessageToMessageCodec;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Carries several root tables over one connection. Every frame starts with
+ * the type id of its table as registered in a {@link FlatBufferTypeRegistry},
+ * encoded as a one or two byte varint, followed by the FlatBuffer.<p>
+ * The type id is prepended in front of the finished data inside the
+ * builder, so the builder must not be sent again without being cleared.
+ * Like with {@link FlatBufferCodec} only a {@link ByteBufFlatBufferBuilder}
+ * is sent without copying its data. Decoding works like
+ * {@link FlatBufferCodec}, the frame is copied unless it is retained in a
+ * {@link FlatMessage}.
+ */
+public class TypedFlatBufferCodec extends MessageToMessageCodec<ByteBuf, TypedFlatBuffer> {
+    private final FlatBufferTypeRegistry registry;
+    private final boolean retain;
+    private FlatBufferVerifier.TableVerifier verifier;
+
+    public TypedFlatBufferCodec(FlatBufferTypeRegistry registry) {
+        this(registry, false);
+    }
+
+    /**
+     * @param registry the type ids
+     * @param retain   whether to decode to {@link FlatMessage}s
+     */
+    public TypedFlatBufferCodec(FlatBufferTypeRegistry registry, boolean retain) {
+        this.registry = registry;
+        this.retain = retain;
+    }
+
+    /**
+     * Verifies received frames before decoding them, except on channels
+     * marked as trusted with {@link FlatBufferVerifier#setTrusted}. The
+     * verifier is used for every type
+     *
+     * @param verifier checks the fields of the root table, usually
+     *                 {@link FlatBufferVerifier#STRUCTURE}, or null to
+     *                 disable verification
+     */
+    public void setVerifier(FlatBufferVerifier.TableVerifier verifier) {
+        this.verifier = verifier;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, TypedFlatBuffer msg, List<Object> out) throws Exception {
+        int id = registry.getTypeId(msg.getType());
+        if (id < 0) {
+            // MessageToMessageCodec releases the message and so its builder
+            throw new IllegalArgumentException("unregistered FlatBuffer type: "
+                    + msg.getType().getName());
+        }
+
+        // the builder writes back to front, so the last byte added comes first
+        FlatBufferBuilder builder = msg.getBuilder();
+        if (id < 0x80) {
+            builder.addByte((byte) id);
+        } else {
+            builder.addByte((byte) (id >>> 7));
+            builder.addByte((byte) (id | 0x80));
+        }
+
+        // finish() fixed the start of the data before the id was added
+        ByteBuffer data = builder.dataBuffer();
+        data.position(data.capacity() - builder.offset());
+
+        if (builder instanceof ByteBufFlatBufferBuilder) {
+            out.add(((ByteBufFlatBufferBuilder) builder).toByteBuf());
+        } else {
+            out.add(Unpooled.copiedBuffer(data));
+        }
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+        if (!msg.isReadable()) {
+            throw new CorruptedFrameException("frame without type id");
+        }
+
+        int id = msg.readUnsignedByte();
+        if ((id & 0x80) != 0) {
+            if (!msg.isReadable()) {
+                throw new CorruptedFrameException("truncated type id");
+            }
+
+            id = (id & 0x7F) | (msg.readUnsignedByte() << 7);
+        }
+
+        Function<ByteBuffer, ? extends Table> decoder = registry.getDecoder(id);
+        if (decoder == null) {
+            throw new CorruptedFrameException("unknown FlatBuffer type id: " + id);
+        }
+
+        ByteBuffer bb = FlatBufferCodec.frameBuffer(msg, retain);
+        if (verifier != null && !FlatBufferVerifier.isTrusted(ctx)) {
+            FlatBufferVerifier.verify(bb, verifier);
+        }
+
+        Table table = decoder.apply(bb);
+
+        if (retain) {
+            out.add(new FlatMessage<>(table, msg.retain()));
+        } else {
+            out.add(table);
+        }
+    }
+}
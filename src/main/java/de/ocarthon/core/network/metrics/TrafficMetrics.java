@@ -0,0 +1,82 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.metrics;
+
+import de.ocarthon.core.utility.Histogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and histograms of the traffic of one channel or of all channels
+ * together. All counters are striped, so they can be updated from several
+ * event loops without contention. The histograms take about 4 KB each per
+ * stripe, so they are optional for single channels.
+ */
+class TrafficMetrics {
+    final LongAdder messagesIn = new LongAdder();
+    final LongAdder messagesOut = new LongAdder();
+    final LongAdder bytesIn = new LongAdder();
+    final LongAdder bytesOut = new LongAdder();
+    final Histogram frameSizeIn;
+    final Histogram frameSizeOut;
+    final Histogram writeLatency;
+
+    /**
+     * @param stripes    stripes of the histograms
+     * @param histograms whether to record histograms, the snapshots contain
+     *                   empty histograms otherwise
+     */
+    TrafficMetrics(int stripes, boolean histograms) {
+        frameSizeIn = histograms ? new Histogram(stripes) : null;
+        frameSizeOut = histograms ? new Histogram(stripes) : null;
+        writeLatency = histograms ? new Histogram(stripes) : null;
+    }
+
+    void recordInbound(int frameBytes) {
+        messagesIn.increment();
+        bytesIn.add(frameBytes);
+
+        if (frameSizeIn != null) {
+            frameSizeIn.record(frameBytes);
+        }
+    }
+
+    void recordOutbound(int frameBytes) {
+        messagesOut.increment();
+        bytesOut.add(frameBytes);
+
+        if (frameSizeOut != null) {
+            frameSizeOut.record(frameBytes);
+        }
+    }
+
+    void recordWriteLatency(long latency) {
+        if (writeLatency != null) {
+            writeLatency.record(latency);
+        }
+    }
+
+    TrafficSnapshot snapshot(int connections, long pendingWriteBytes) {
+        return new TrafficSnapshot(System.nanoTime(), connections, messagesIn.sum(),
+                messagesOut.sum(), bytesIn.sum(), bytesOut.sum(), pendingWriteBytes,
+                snapshot(frameSizeIn), snapshot(frameSizeOut), snapshot(writeLatency));
+    }
+
+    private static Histogram.Snapshot snapshot(Histogram histogram) {
+        return histogram != null ? histogram.snapshot() : Histogram.Snapshot.EMPTY;
+    }
+}
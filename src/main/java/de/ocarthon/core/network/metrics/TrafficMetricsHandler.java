@@ -0,0 +1,180 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.metrics;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.ChannelPromise;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Collects traffic metrics of every channel it is installed in and of all
+ * channels together. The handler has to be placed directly behind the frame
+ * decoder, so that it sees every frame as a single {@link ByteBuf}, including
+ * pings and frames dropped by later handlers. File chunks that are sent as
+ * file region on plaintext channels are written in front of the frame
+ * decoder and are not counted.<p>
+ * Histograms are only kept for all channels together, unless they are
+ * enabled per channel with {@link #setChannelHistograms(boolean)}.
+ */
+@ChannelHandler.Sharable
+public class TrafficMetricsHandler extends ChannelHandlerAdapter {
+    private final Map<Channel, TrafficMetrics> channels = new ConcurrentHashMap<>();
+    private final TrafficMetrics total =
+            new TrafficMetrics(Runtime.getRuntime().availableProcessors() * 2, true);
+    private final int lengthBytes;
+    private volatile boolean channelHistograms;
+
+    /**
+     * @param lengthBytes size of the length field in front of each frame,
+     *                    it is added to the byte counters
+     */
+    public TrafficMetricsHandler(int lengthBytes) {
+        this.lengthBytes = lengthBytes;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        channels.put(ctx.channel(), new TrafficMetrics(1, channelHistograms));
+        ctx.fireChannelActive();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        channels.remove(ctx.channel());
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof ByteBuf) {
+            int size = ((ByteBuf) msg).readableBytes() + lengthBytes;
+            TrafficMetrics metrics = channels.get(ctx.channel());
+
+            if (metrics != null) {
+                metrics.recordInbound(size);
+            }
+            total.recordInbound(size);
+        }
+
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof ByteBuf) {
+            int size = ((ByteBuf) msg).readableBytes() + lengthBytes;
+            TrafficMetrics metrics = channels.get(ctx.channel());
+
+            if (metrics != null) {
+                metrics.recordOutbound(size);
+            }
+            total.recordOutbound(size);
+
+            long start = System.nanoTime();
+            promise = promise.unvoid();
+            promise.addListener((ChannelFutureListener) f -> {
+                long latency = System.nanoTime() - start;
+
+                if (metrics != null) {
+                    metrics.recordWriteLatency(latency);
+                }
+                total.recordWriteLatency(latency);
+            });
+        }
+
+        ctx.write(msg, promise);
+    }
+
+    /**
+     * Enables frame size and latency histograms for each channel opened
+     * afterwards. They take about 12 KB per channel.
+     *
+     * @param channelHistograms whether to record histograms per channel
+     */
+    public void setChannelHistograms(boolean channelHistograms) {
+        this.channelHistograms = channelHistograms;
+    }
+
+    /**
+     * @return the traffic of all channels since the handler was created
+     */
+    public TrafficSnapshot snapshot() {
+        long pending = 0;
+        for (Channel channel : channels.keySet()) {
+            pending += pendingWriteBytes(channel);
+        }
+
+        return total.snapshot(channels.size(), pending);
+    }
+
+    /**
+     * @param channel the channel
+     * @return the traffic of the given channel or null if the channel is not
+     * open
+     */
+    public TrafficSnapshot snapshot(Channel channel) {
+        TrafficMetrics metrics = channels.get(channel);
+        return metrics != null ? metrics.snapshot(1, pendingWriteBytes(channel)) : null;
+    }
+
+    /**
+     * @return the traffic of every open channel
+     */
+    public Map<Channel, TrafficSnapshot> getChannelSnapshots() {
+        Map<Channel, TrafficSnapshot> snapshots = new HashMap<>();
+
+        for (Map.Entry<Channel, TrafficMetrics> entry : channels.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshot(1,
+                    pendingWriteBytes(entry.getKey())));
+        }
+
+        return snapshots;
+    }
+
+    /**
+     * Periodically passes a snapshot of all channels to the given reporter
+     *
+     * @param executor the executor that runs the reporter
+     * @param period   the time between two reports
+     * @param unit     unit of the period
+     * @param reporter receives the snapshots
+     * @return future that can be used to stop the reporter
+     */
+    public ScheduledFuture<?> startReporter(ScheduledExecutorService executor, long period,
+                                            TimeUnit unit, Consumer<TrafficSnapshot> reporter) {
+        return executor.scheduleAtFixedRate(() -> reporter.accept(snapshot()), period, period,
+                unit);
+    }
+
+    private static long pendingWriteBytes(Channel channel) {
+        ChannelOutboundBuffer buffer = channel.unsafe().outboundBuffer();
+        return buffer != null ? buffer.totalPendingWriteBytes() : 0;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.metrics;
+
+import de.ocarthon.core.utility.Histogram;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable view of the traffic of a channel or of a whole server. All
+ * counters are totals since the channel was opened or the metrics were
+ * installed, rates can be calculated against a previous snapshot.
+ */
+public class TrafficSnapshot {
+    private final long timestamp;
+    private final int connections;
+    private final long messagesIn;
+    private final long messagesOut;
+    private final long bytesIn;
+    private final long bytesOut;
+    private final long pendingWriteBytes;
+    private final Histogram.Snapshot frameSizeIn;
+    private final Histogram.Snapshot frameSizeOut;
+    private final Histogram.Snapshot writeLatency;
+
+    TrafficSnapshot(long timestamp, int connections, long messagesIn, long messagesOut,
+                    long bytesIn, long bytesOut, long pendingWriteBytes,
+                    Histogram.Snapshot frameSizeIn, Histogram.Snapshot frameSizeOut,
+                    Histogram.Snapshot writeLatency) {
+        this.timestamp = timestamp;
+        this.connections = connections;
+        this.messagesIn = messagesIn;
+        this.messagesOut = messagesOut;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.pendingWriteBytes = pendingWriteBytes;
+        this.frameSizeIn = frameSizeIn;
+        this.frameSizeOut = frameSizeOut;
+        this.writeLatency = writeLatency;
+    }
+
+    /**
+     * @return the value of {@link System#nanoTime()} when the snapshot was taken
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return number of open connections
+     */
+    public int getConnections() {
+        return connections;
+    }
+
+    public long getMessagesIn() {
+        return messagesIn;
+    }
+
+    public long getMessagesOut() {
+        return messagesOut;
+    }
+
+    /**
+     * @return received bytes including the length field of each frame
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * @return sent bytes including the length field of each frame
+     */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * @return bytes that have been written but not yet flushed to the socket
+     */
+    public long getPendingWriteBytes() {
+        return pendingWriteBytes;
+    }
+
+    /**
+     * @return sizes of received frames in bytes
+     */
+    public Histogram.Snapshot getFrameSizeIn() {
+        return frameSizeIn;
+    }
+
+    /**
+     * @return sizes of sent frames in bytes
+     */
+    public Histogram.Snapshot getFrameSizeOut() {
+        return frameSizeOut;
+    }
+
+    /**
+     * @return time in nanoseconds between writing a message and the message
+     * being written to the socket
+     */
+    public Histogram.Snapshot getWriteLatency() {
+        return writeLatency;
+    }
+
+    /**
+     * Calculates the number of received messages per second since the
+     * previous snapshot
+     *
+     * @param previous an older snapshot of the same channel or server
+     * @return messages per second
+     */
+    public double getMessagesInRate(TrafficSnapshot previous) {
+        return rate(messagesIn - previous.messagesIn, previous);
+    }
+
+    /**
+     * Calculates the number of sent messages per second since the previous
+     * snapshot
+     *
+     * @param previous an older snapshot of the same channel or server
+     * @return messages per second
+     */
+    public double getMessagesOutRate(TrafficSnapshot previous) {
+        return rate(messagesOut - previous.messagesOut, previous);
+    }
+
+    private double rate(long delta, TrafficSnapshot previous) {
+        long elapsed = timestamp - previous.timestamp;
+        return elapsed <= 0 ? 0 : delta * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return "TrafficSnapshot(connections: " + connections
+                + ", messages in/out: " + messagesIn + "/" + messagesOut
+                + ", bytes in/out: " + bytesIn + "/" + bytesOut
+                + ", pending: " + pendingWriteBytes
+                + ", write latency p50/p99: " + writeLatency.getPercentile(50) + "/"
+                + writeLatency.getPercentile(99) + "ns)";
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.rpc;
+
+import de.ocarthon.core.network.tcp.TCPClient;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.util.ReferenceCountUtil;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adds request / response calls to a {@link TCPClient}. The rpc codec is
+ * added to the custom codecs of the client, so this has to be created
+ * before the client connects. Codecs added afterwards receive the payload
+ * of plain messages.
+ */
+public class RpcClient {
+    private final TCPClient client;
+    private long defaultTimeout = 30;
+    private TimeUnit defaultTimeoutUnit = TimeUnit.SECONDS;
+
+    public RpcClient(TCPClient client, RpcRequestHandler requestHandler) {
+        this.client = client;
+        client.addCustomCodec(p -> {
+            p.addLast("rpcCodec", new RpcCodec());
+            p.addLast("rpcHandler", new RpcHandler(requestHandler));
+        });
+    }
+
+    public RpcClient(TCPClient client) {
+        this(client, null);
+    }
+
+    public CompletableFuture<ByteBuf> call(ByteBuf request, long timeout, TimeUnit unit) {
+        Channel channel = client.getChannel();
+        RpcHandler handler = channel != null ? RpcHandler.get(channel) : null;
+
+        if (handler == null) {
+            ReferenceCountUtil.release(request);
+            CompletableFuture<ByteBuf> future = new CompletableFuture<>();
+            future.completeExceptionally(new ClosedChannelException());
+            return future;
+        }
+
+        return handler.call(request, timeout, unit);
+    }
+
+    public CompletableFuture<ByteBuf> call(ByteBuf request) {
+        return call(request, defaultTimeout, defaultTimeoutUnit);
+    }
+
+    /**
+     * Sets the timeout used by {@link #call(ByteBuf)}
+     *
+     * @param timeout the timeout, 0 or less to wait forever
+     * @param unit    unit of the timeout
+     */
+    public void setDefaultTimeout(long timeout, TimeUnit unit) {
+        this.defaultTimeout = timeout;
+        this.defaultTimeoutUnit = unit;
+    }
+
+    public TCPClient getClient() {
+        return client;
+    }
+}
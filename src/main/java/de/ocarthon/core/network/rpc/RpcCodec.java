@@ -0,0 +1,52 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.rpc;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.MessageToMessageCodec;
+
+import java.util.List;
+
+/**
+ * Converts length delimited frames into {@link RpcFrame}s and back. The
+ * payload is not copied, it is sliced out of the received frame.
+ */
+public class RpcCodec extends MessageToMessageCodec<ByteBuf, RpcFrame> {
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, RpcFrame msg, List<Object> out) throws Exception {
+        ByteBuf header = ctx.alloc().buffer(RpcFrame.HEADER_LENGTH);
+        header.writeByte(msg.getType());
+        header.writeInt(msg.getId());
+
+        out.add(Unpooled.wrappedBuffer(header, msg.content().retain()));
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+        if (msg.readableBytes() < RpcFrame.HEADER_LENGTH) {
+            throw new CorruptedFrameException("rpc frame too short: " + msg.readableBytes());
+        }
+
+        byte type = msg.readByte();
+        int id = msg.readInt();
+        out.add(new RpcFrame(type, id, msg.readSlice(msg.readableBytes()).retain()));
+    }
+}
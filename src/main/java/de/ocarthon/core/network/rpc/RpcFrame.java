@@ -0,0 +1,59 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.rpc;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
+
+/**
+ * A single frame of the rpc protocol. Every frame carries a type and a
+ * correlation id in front of its payload. Responses and errors carry the
+ * id of the request they belong to, plain messages use the id 0.
+ */
+public class RpcFrame extends DefaultByteBufHolder {
+    /**
+     * length of the header in front of the payload (type + id)
+     */
+    public static final int HEADER_LENGTH = 5;
+
+    public static final byte MESSAGE = 0;
+    public static final byte REQUEST = 1;
+    public static final byte RESPONSE = 2;
+    public static final byte ERROR = 3;
+
+    private final byte type;
+    private final int id;
+
+    public RpcFrame(byte type, int id, ByteBuf payload) {
+        super(payload);
+        this.type = type;
+        this.id = id;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return "RpcFrame(type: " + type + ", id: " + id + ", " + content() + ')';
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.rpc;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Correlates requests and responses of a single connection. Any number of
+ * calls can be outstanding at the same time, their futures are completed
+ * from the read path as soon as the matching response arrives.<p>
+ * Plain {@link ByteBuf}s written to the channel are sent as
+ * {@link RpcFrame#MESSAGE} frames and received messages are passed on to
+ * the next handler, so a {@link de.ocarthon.core.network.tcp.TCPListener}
+ * keeps working as before.
+ */
+public class RpcHandler extends ChannelHandlerAdapter {
+    private final Map<Integer, PendingCall> pendingCalls = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final RpcRequestHandler requestHandler;
+    private volatile ChannelHandlerContext ctx;
+
+    public RpcHandler(RpcRequestHandler requestHandler) {
+        this.requestHandler = requestHandler;
+    }
+
+    public RpcHandler() {
+        this(null);
+    }
+
+    /**
+     * Returns the rpc handler installed in the pipeline of the given channel
+     *
+     * @param channel the channel
+     * @return the handler or null if the channel does not use rpc
+     */
+    public static RpcHandler get(Channel channel) {
+        return channel.pipeline().get(RpcHandler.class);
+    }
+
+    /**
+     * Sends a request to the remote side. The returned future completes with
+     * the response, an {@link RpcException} if the remote side failed, a
+     * {@link TimeoutException} if no response arrived in time or a
+     * {@link ClosedChannelException} if the connection was lost. Cancelling
+     * the future discards the response once it arrives.
+     *
+     * @param request the request payload, ownership is transferred
+     * @param timeout the timeout, 0 or less to wait forever
+     * @param unit    unit of the timeout
+     * @return future of the response
+     */
+    public CompletableFuture<ByteBuf> call(ByteBuf request, long timeout, TimeUnit unit) {
+        CompletableFuture<ByteBuf> future = new CompletableFuture<>();
+        ChannelHandlerContext ctx = this.ctx;
+
+        if (ctx == null || !ctx.channel().isActive()) {
+            ReferenceCountUtil.release(request);
+            future.completeExceptionally(new ClosedChannelException());
+            return future;
+        }
+
+        int nextCallId = nextId.incrementAndGet();
+        if (nextCallId == 0) {
+            // 0 is used by plain messages
+            nextCallId = nextId.incrementAndGet();
+        }
+
+        final int id = nextCallId;
+        PendingCall call = new PendingCall(future);
+        pendingCalls.put(id, call);
+
+        if (timeout > 0) {
+            call.timeout = ctx.executor().schedule(() -> {
+                future.completeExceptionally(new TimeoutException("rpc call " + id
+                        + " timed out"));
+            }, timeout, unit);
+        }
+
+        future.whenComplete((response, cause) -> {
+            pendingCalls.remove(id);
+
+            if (call.timeout != null) {
+                call.timeout.cancel(false);
+            }
+        });
+
+        ctx.writeAndFlush(new RpcFrame(RpcFrame.REQUEST, id, request))
+                .addListener((ChannelFutureListener) f -> {
+                    if (!f.isSuccess()) {
+                        future.completeExceptionally(f.cause());
+                    }
+                });
+
+        return future;
+    }
+
+    public CompletableFuture<ByteBuf> call(ByteBuf request) {
+        return call(request, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the number of calls that are waiting for a response
+     */
+    public int getPendingCalls() {
+        return pendingCalls.size();
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof RpcFrame)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        RpcFrame frame = (RpcFrame) msg;
+        switch (frame.getType()) {
+            case RpcFrame.MESSAGE:
+                ctx.fireChannelRead(frame.content());
+                break;
+
+            case RpcFrame.REQUEST:
+                handleRequest(ctx, frame);
+                break;
+
+            case RpcFrame.RESPONSE:
+                PendingCall call = pendingCalls.remove(frame.getId());
+                if (call == null || !call.future.complete(frame.content())) {
+                    // timed out or cancelled
+                    frame.release();
+                }
+                break;
+
+            case RpcFrame.ERROR:
+                String message = frame.content().toString(CharsetUtil.UTF_8);
+                frame.release();
+
+                PendingCall failedCall = pendingCalls.remove(frame.getId());
+                if (failedCall != null) {
+                    failedCall.future.completeExceptionally(new RpcException(message));
+                }
+                break;
+
+            default:
+                frame.release();
+                ctx.fireExceptionCaught(new CorruptedFrameException("unknown rpc frame type: "
+                        + frame.getType()));
+        }
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof ByteBuf) {
+            ctx.write(new RpcFrame(RpcFrame.MESSAGE, 0, (ByteBuf) msg), promise);
+        } else {
+            ctx.write(msg, promise);
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        ClosedChannelException cause = new ClosedChannelException();
+        for (PendingCall call : pendingCalls.values()) {
+            call.future.completeExceptionally(cause);
+        }
+
+        ctx.fireChannelInactive();
+    }
+
+    private void handleRequest(ChannelHandlerContext ctx, RpcFrame frame) {
+        int id = frame.getId();
+
+        if (requestHandler == null) {
+            frame.release();
+            writeError(ctx, id, "no request handler");
+            return;
+        }
+
+        CompletableFuture<ByteBuf> response;
+        try {
+            response = requestHandler.onRequest(ctx, frame.content());
+        } catch (Throwable t) {
+            writeError(ctx, id, t);
+            return;
+        }
+
+        if (response == null) {
+            writeError(ctx, id, "no response");
+            return;
+        }
+
+        response.whenComplete((result, cause) -> {
+            if (cause != null) {
+                writeError(ctx, id, cause);
+            } else {
+                ctx.writeAndFlush(new RpcFrame(RpcFrame.RESPONSE, id,
+                        result != null ? result : Unpooled.EMPTY_BUFFER));
+            }
+        });
+    }
+
+    private static void writeError(ChannelHandlerContext ctx, int id, Throwable cause) {
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+
+        writeError(ctx, id, cause.getMessage() != null ? cause.getMessage() : cause.toString());
+    }
+
+    private static void writeError(ChannelHandlerContext ctx, int id, String message) {
+        ctx.writeAndFlush(new RpcFrame(RpcFrame.ERROR, id,
+                Unpooled.copiedBuffer(message, CharsetUtil.UTF_8)));
+    }
+
+    private static class PendingCall {
+        private final CompletableFuture<ByteBuf> future;
+        private ScheduledFuture<?> timeout;
+
+        private PendingCall(CompletableFuture<ByteBuf> future) {
+            this.future = future;
+        }
+    }
+}
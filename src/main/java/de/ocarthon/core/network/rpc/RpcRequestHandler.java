@@ -0,0 +1,33 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.rpc;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Answers incoming rpc requests. The handler takes ownership of the request
+ * buffer and is responsible for releasing it. Responses may be completed
+ * from any thread and in any order.
+ */
+@FunctionalInterface
+public interface RpcRequestHandler {
+
+    CompletableFuture<ByteBuf> onRequest(ChannelHandlerContext ctx, ByteBuf request);
+}
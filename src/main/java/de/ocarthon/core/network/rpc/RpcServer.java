@@ -0,0 +1,42 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.rpc;
+
+import de.ocarthon.core.network.tcp.TCPServer;
+
+/**
+ * Answers rpc calls of clients connected to a {@link TCPServer}. The rpc
+ * codec is added to the custom codecs of the server, so this has to be
+ * created before the server is bound. Codecs added afterwards receive the
+ * payload of plain messages. Calls to a single client can be made
+ * through {@link RpcHandler#get(io.netty.channel.Channel)}.
+ */
+public class RpcServer {
+    private final TCPServer server;
+
+    public RpcServer(TCPServer server, RpcRequestHandler requestHandler) {
+        this.server = server;
+        server.addCustomCodec(p -> {
+            p.addLast("rpcCodec", new RpcCodec());
+            p.addLast("rpcHandler", new RpcHandler(requestHandler));
+        });
+    }
+
+    public TCPServer getServer() {
+        return server;
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.shm;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.CorruptedFrameException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A single producer, single consumer queue of frames in a memory mapped
+ * file, so that two processes on the same machine can exchange messages
+ * without a system call per message.<p>
+ * The file starts with a header holding the capacity, a closed flag and the
+ * head (write) and tail (read) cursors, each on its own cache line. Cursors
+ * only grow, the position in the data area is the cursor modulo the
+ * capacity. Each frame is stored as its length followed by the data and is
+ * aligned to 8 bytes. A frame that does not fit in front of the end of the
+ * data area is preceded by a padding record and written to the start.<p>
+ * A new file is prepared under a temporary name and moved into place with
+ * its header written, so the other side never sees a partial header. The
+ * header and the frame lengths are checked, as they are written by another
+ * process.<p>
+ * Only one thread may call {@link #offer(ByteBuf)} and only one thread may
+ * call {@link #poll()}. The producer publishes a frame with an ordered write
+ * of the head cursor, the consumer releases the space with an ordered write
+ * of the tail cursor, so no locks are needed.<p>
+ * Java 8 has no VarHandles and ByteBuffers have no ordered or volatile
+ * accessors, so the cursors and the closed flag are accessed through
+ * {@code sun.misc.Unsafe} at the address of the mapping, which is read
+ * from the private {@code Buffer.address} field. Both are looked up
+ * reflectively and called through method handles, so that the class does
+ * not depend on the internal API at compile time.
+ */
+public class RingBuffer implements Closeable {
+    private static final MethodHandle GET_LONG;
+    private static final MethodHandle GET_LONG_VOLATILE;
+    private static final MethodHandle PUT_ORDERED_LONG;
+    private static final MethodHandle GET_INT_VOLATILE;
+    private static final MethodHandle PUT_INT_VOLATILE;
+    private static final long ADDRESS_OFFSET;
+
+    private static final int CAPACITY_OFFSET = 0;
+    private static final int CLOSED_OFFSET = 4;
+    private static final int HEAD_OFFSET = 64;
+    private static final int TAIL_OFFSET = 128;
+    private static final int DATA_OFFSET = 192;
+
+    private static final int PADDING = -1;
+    private static final int LENGTH_SIZE = 4;
+    private static final int ALIGNMENT = 8;
+
+    static {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            GET_LONG = lookup.findVirtual(unsafeClass, "getLong",
+                    MethodType.methodType(long.class, Object.class, long.class)).bindTo(unsafe);
+            GET_LONG_VOLATILE = lookup.findVirtual(unsafeClass, "getLongVolatile",
+                    MethodType.methodType(long.class, Object.class, long.class)).bindTo(unsafe);
+            PUT_ORDERED_LONG = lookup.findVirtual(unsafeClass, "putOrderedLong",
+                    MethodType.methodType(void.class, Object.class, long.class, long.class))
+                    .bindTo(unsafe);
+            GET_INT_VOLATILE = lookup.findVirtual(unsafeClass, "getIntVolatile",
+                    MethodType.methodType(int.class, Object.class, long.class)).bindTo(unsafe);
+            PUT_INT_VOLATILE = lookup.findVirtual(unsafeClass, "putIntVolatile",
+                    MethodType.methodType(void.class, Object.class, long.class, int.class))
+                    .bindTo(unsafe);
+
+            MethodHandle fieldOffset = lookup.findVirtual(unsafeClass, "objectFieldOffset",
+                    MethodType.methodType(long.class, Field.class)).bindTo(unsafe);
+            ADDRESS_OFFSET = (long) fieldOffset.invokeExact(Buffer.class.getDeclaredField("address"));
+        } catch (Throwable e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final ByteBuffer data;
+    private final int capacity;
+    private final long headAddress;
+    private final long tailAddress;
+
+    // cursors owned by this side and cached copies of the other side's cursor
+    private long head;
+    private long cachedTail;
+    private long tail;
+    private long cachedHead;
+
+    private RingBuffer(File file, int capacity, boolean create) throws IOException {
+        if (create) {
+            this.file = createFile(file, capacity);
+        } else {
+            this.file = new RandomAccessFile(file, "rw");
+            capacity = this.file.length() >= DATA_OFFSET ? this.file.readInt() : 0;
+
+            if (!isValidCapacity(capacity) || this.file.length() != DATA_OFFSET + (long) capacity) {
+                this.file.close();
+                throw new IOException("invalid ring buffer header: " + file);
+            }
+        }
+
+        this.capacity = capacity;
+        this.buffer = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                DATA_OFFSET + capacity);
+
+        ByteBuffer data = buffer.duplicate();
+        data.position(DATA_OFFSET);
+        this.data = data.slice();
+
+        long address = getLong(buffer, ADDRESS_OFFSET);
+        this.headAddress = address + HEAD_OFFSET;
+        this.tailAddress = address + TAIL_OFFSET;
+
+        this.head = getLongVolatile(headAddress);
+        this.tail = getLongVolatile(tailAddress);
+        this.cachedHead = head;
+        this.cachedTail = tail;
+    }
+
+    private static RandomAccessFile createFile(File file, int capacity) throws IOException {
+        if (!isValidCapacity(capacity)) {
+            throw new IllegalArgumentException("capacity must be a power of two");
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+
+        try {
+            raf.setLength(0);
+            raf.setLength(DATA_OFFSET + capacity);
+            raf.seek(CAPACITY_OFFSET);
+            raf.writeInt(capacity);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            raf.close();
+            tmp.delete();
+            throw e;
+        }
+
+        return raf;
+    }
+
+    private static boolean isValidCapacity(int capacity) {
+        return capacity >= ALIGNMENT && Integer.bitCount(capacity) == 1;
+    }
+
+    /**
+     * Creates a new ring buffer, an existing file is replaced
+     *
+     * @param file     the file
+     * @param capacity size of the data area in bytes, a power of two
+     * @return the ring buffer
+     * @throws IOException if the file could not be created or mapped
+     */
+    public static RingBuffer create(File file, int capacity) throws IOException {
+        return new RingBuffer(file, capacity, true);
+    }
+
+    /**
+     * Opens a ring buffer created by another process
+     *
+     * @param file the file
+     * @return the ring buffer
+     * @throws IOException if the file could not be opened or mapped or its
+     *                     header is invalid
+     */
+    public static RingBuffer open(File file) throws IOException {
+        return new RingBuffer(file, 0, false);
+    }
+
+    /**
+     * Appends a frame if there is enough space. The frame is not released.
+     *
+     * @param frame the frame
+     * @return false if the buffer is full
+     */
+    public boolean offer(ByteBuf frame) {
+        int length = frame.readableBytes();
+        int recordLength = align(LENGTH_SIZE + length);
+
+        if (recordLength > capacity) {
+            throw new IllegalArgumentException("frame of " + length
+                    + " bytes does not fit into the ring buffer");
+        }
+
+        int index = (int) (head & (capacity - 1));
+        int padding = capacity - index < recordLength ? capacity - index : 0;
+
+        if (!hasSpace(padding + recordLength)) {
+            return false;
+        }
+
+        if (padding > 0) {
+            data.putInt(index, PADDING);
+            index = 0;
+        }
+
+        data.putInt(index, length);
+        ByteBuffer target = data.duplicate();
+        target.position(index + LENGTH_SIZE);
+        target.limit(index + LENGTH_SIZE + length);
+        frame.getBytes(frame.readerIndex(), target);
+
+        head += padding + recordLength;
+        putOrderedLong(headAddress, head);
+        return true;
+    }
+
+    private boolean hasSpace(int required) {
+        if (capacity - (head - cachedTail) >= required) {
+            return true;
+        }
+
+        cachedTail = getLongVolatile(tailAddress);
+        return capacity - (head - cachedTail) >= required;
+    }
+
+    /**
+     * Removes the oldest frame
+     *
+     * @return a copy of the frame or null if the buffer is empty
+     * @throws CorruptedFrameException if the length of the frame does not
+     *                                 fit into the written data
+     */
+    public ByteBuf poll() {
+        if (tail == cachedHead) {
+            cachedHead = getLongVolatile(headAddress);
+
+            if (tail == cachedHead) {
+                return null;
+            }
+        }
+
+        int index = (int) (tail & (capacity - 1));
+        int length = data.getInt(index);
+
+        if (length == PADDING) {
+            if (cachedHead - tail < capacity - index + LENGTH_SIZE) {
+                throw new CorruptedFrameException("padding beyond written data");
+            }
+
+            tail += capacity - index;
+            index = 0;
+            length = data.getInt(index);
+        }
+
+        if (length < 0 || length > capacity - index - LENGTH_SIZE
+                || align(LENGTH_SIZE + length) > cachedHead - tail) {
+            throw new CorruptedFrameException("invalid frame length: " + length);
+        }
+
+        ByteBuffer source = data.duplicate();
+        source.position(index + LENGTH_SIZE);
+        source.limit(index + LENGTH_SIZE + length);
+
+        ByteBuf frame = Unpooled.buffer(length);
+        frame.writeBytes(source);
+
+        tail += align(LENGTH_SIZE + length);
+        putOrderedLong(tailAddress, tail);
+        return frame;
+    }
+
+    /**
+     * @return whether no frames are waiting
+     */
+    public boolean isEmpty() {
+        return getLongVolatile(tailAddress)
+                == getLongVolatile(headAddress);
+    }
+
+    /**
+     * Marks the buffer as closed by the producer. Frames that have already
+     * been written can still be read.
+     */
+    public void markClosed() {
+        putIntVolatile(headAddress - HEAD_OFFSET + CLOSED_OFFSET, 1);
+    }
+
+    /**
+     * @return whether the producer has closed the buffer
+     */
+    public boolean isClosed() {
+        return getIntVolatile(headAddress - HEAD_OFFSET + CLOSED_OFFSET) != 0;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Closes the file. The mapping itself is released once the buffer is
+     * garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private static long getLong(Object o, long offset) {
+        try {
+            return (long) GET_LONG.invokeExact(o, offset);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long getLongVolatile(long address) {
+        try {
+            return (long) GET_LONG_VOLATILE.invokeExact((Object) null, address);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void putOrderedLong(long address, long value) {
+        try {
+            PUT_ORDERED_LONG.invokeExact((Object) null, address, value);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int getIntVolatile(long address) {
+        try {
+            return (int) GET_INT_VOLATILE.invokeExact((Object) null, address);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void putIntVolatile(long address, int value) {
+        try {
+            PUT_INT_VOLATILE.invokeExact((Object) null, address, value);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int align(int length) {
+        return (length + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.shm;
+
+import de.ocarthon.core.network.tcp.TCPListener;
+import de.ocarthon.core.thread.LoopedThread;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.util.ReferenceCountUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * One side of a connection between two processes on the same machine that
+ * exchanges frames through two {@link RingBuffer}s instead of a socket. The
+ * side calling {@link #create(String, int)} owns the files, the other side
+ * calls {@link #open(String)}.<p>
+ * Messages pass through a regular pipeline, so codecs added with
+ * {@link #addCustomCodec(Consumer)} (e.g. the
+ * {@link de.ocarthon.core.network.codec.flatbuffer.FlatBufferCodec}) and the
+ * {@link TCPListener} work the same way as with a
+ * {@link de.ocarthon.core.network.tcp.TCPClient}.<p>
+ * The pipeline is owned by a single thread that busy spins on the inbound
+ * buffer and backs off to short sleeps while there is nothing to do. It
+ * calls the listener, so the listener must not block. The ring buffers
+ * may only be written by this thread, so messages passed to
+ * {@link #send(Object)} and messages written to the channel or a context
+ * from other threads, e.g. by a listener handing work to an executor, are
+ * queued and written by this thread. Frames that do not
+ * fit into the outbound buffer are kept and retried, so a slow consumer on
+ * the other side never blocks the reading of this side. Once more than
+ * {@link #setMaxPendingBytes(int) max pending bytes} are kept, further
+ * writes fail until the consumer catches up, see {@link #isWritable()}.
+ * A corrupt inbound buffer is passed to the listener as exception and
+ * stops the endpoint.
+ */
+public class SharedMemoryEndpoint {
+    private static final int SPIN_TRIES = 1000;
+    private static final int YIELD_TRIES = 100;
+    private static final long PARK_NANOS = 50000;
+
+    private final RingBuffer inbound;
+    private final RingBuffer outbound;
+    private final Queue<Object> outgoing = new ConcurrentLinkedQueue<>();
+    private final Queue<ByteBuf> pending = new ArrayDeque<>();
+    private Consumer<ChannelPipeline> pipelineCodec;
+    private TCPListener listener;
+    private volatile int maxPendingBytes = 1 << 20;
+    private volatile long pendingBytes;
+    private volatile EventLoopThread thread;
+
+    public SharedMemoryEndpoint(RingBuffer inbound, RingBuffer outbound) {
+        this.inbound = inbound;
+        this.outbound = outbound;
+    }
+
+    /**
+     * Creates the ring buffers {@code <path>.up} and {@code <path>.down}
+     *
+     * @param path     path prefix of the files
+     * @param capacity capacity of each ring buffer, a power of two
+     * @return the endpoint
+     * @throws IOException if the files could not be created
+     */
+    public static SharedMemoryEndpoint create(String path, int capacity) throws IOException {
+        return new SharedMemoryEndpoint(RingBuffer.create(new File(path + ".up"), capacity),
+                RingBuffer.create(new File(path + ".down"), capacity));
+    }
+
+    /**
+     * Opens the ring buffers created by the other side
+     *
+     * @param path path prefix of the files
+     * @return the endpoint
+     * @throws IOException if the files could not be opened
+     */
+    public static SharedMemoryEndpoint open(String path) throws IOException {
+        return new SharedMemoryEndpoint(RingBuffer.open(new File(path + ".down")),
+                RingBuffer.open(new File(path + ".up")));
+    }
+
+    /**
+     * Adds handlers between the ring buffers and the listener. Like with
+     * {@link de.ocarthon.core.network.tcp.TCPClient#addCustomCodec(Consumer)}
+     * codecs are added in the order they were registered.
+     *
+     * @param pipelineCodec adds the handlers to the pipeline
+     */
+    public void addCustomCodec(Consumer<ChannelPipeline> pipelineCodec) {
+        this.pipelineCodec = this.pipelineCodec != null
+                ? this.pipelineCodec.andThen(pipelineCodec) : pipelineCodec;
+    }
+
+    /**
+     * @param maxPendingBytes size of the frames that are kept while the
+     *                        outbound ring buffer is full, writes beyond it
+     *                        fail
+     */
+    public void setMaxPendingBytes(int maxPendingBytes) {
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    /**
+     * @return whether frames can be written without exceeding the maximum
+     * of pending bytes
+     */
+    public boolean isWritable() {
+        return pendingBytes < maxPendingBytes;
+    }
+
+    public void setListener(TCPListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts the thread owning the pipeline. The listener is notified about
+     * the connection from that thread.
+     *
+     * @param threadName name of the thread
+     */
+    public void start(String threadName) {
+        thread = new EventLoopThread(threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Passes the message to the pipeline thread, which writes it into the
+     * outbound ring buffer
+     *
+     * @param msg the message
+     */
+    public void send(Object msg) {
+        EventLoopThread thread = this.thread;
+
+        if (thread == null || !thread.isRunning() || thread.shouldStop()) {
+            ReferenceCountUtil.release(msg);
+            throw new IllegalStateException("endpoint is not started or closed");
+        }
+
+        outgoing.add(msg);
+        LockSupport.unpark(thread);
+    }
+
+    public boolean isOpen() {
+        EventLoopThread thread = this.thread;
+        return thread != null && thread.isRunning() && !thread.shouldStop();
+    }
+
+    /**
+     * Stops the pipeline thread, tells the other side that no more frames
+     * will follow and closes the files
+     *
+     * @throws InterruptedException if interrupted while waiting for the thread
+     */
+    public void close() throws InterruptedException {
+        EventLoopThread thread = this.thread;
+
+        if (thread != null) {
+            thread.stopThread();
+            LockSupport.unpark(thread);
+            thread.join();
+        }
+    }
+
+    private class EventLoopThread extends LoopedThread {
+        private EmbeddedChannel channel;
+        private int idle;
+
+        EventLoopThread(String name) {
+            super(name);
+        }
+
+        @Override
+        public void preInitialize() {
+            channel = new EmbeddedChannel(new ChannelInitializer<Channel>() {
+                @Override
+                protected void initChannel(Channel ch) throws Exception {
+                    ChannelPipeline p = ch.pipeline();
+                    p.addLast(new RingBufferWriter());
+
+                    if (pipelineCodec != null) {
+                        pipelineCodec.accept(p);
+                    }
+
+                    p.addLast(new WriteHandOver());
+                    p.addLast(new ListenerHandler());
+                }
+            });
+        }
+
+        @Override
+        public void execute() throws InterruptedException {
+            boolean busy = flushPending();
+
+            Object msg;
+            boolean written = false;
+            while ((msg = outgoing.poll()) != null) {
+                if (msg instanceof PendingWrite) {
+                    PendingWrite write = (PendingWrite) msg;
+                    write.ctx.write(write.msg, write.promise);
+                } else {
+                    channel.write(msg);
+                }
+                written = true;
+            }
+
+            if (written) {
+                channel.flush();
+                busy = true;
+            }
+
+            ByteBuf frame;
+            try {
+                frame = inbound.poll();
+            } catch (CorruptedFrameException e) {
+                channel.pipeline().fireExceptionCaught(e);
+                stopThread();
+                return;
+            }
+
+            if (frame != null) {
+                channel.writeInbound(frame);
+                busy = true;
+            } else if (inbound.isClosed() && inbound.isEmpty()) {
+                stopThread();
+            }
+
+            if (busy) {
+                idle = 0;
+                return;
+            }
+
+            // scheduled tasks of handlers, e.g. timeouts
+            channel.runPendingTasks();
+
+            if (++idle > SPIN_TRIES + YIELD_TRIES) {
+                LockSupport.parkNanos(PARK_NANOS);
+            } else if (idle > SPIN_TRIES) {
+                Thread.yield();
+            }
+        }
+
+        @Override
+        public void postDispose() {
+            outbound.markClosed();
+            channel.close();
+            channel.runPendingTasks();
+
+            ByteBuf frame;
+            while ((frame = pending.poll()) != null) {
+                frame.release();
+            }
+            pendingBytes = 0;
+
+            Object msg;
+            while ((msg = outgoing.poll()) != null) {
+                if (msg instanceof PendingWrite) {
+                    ReferenceCountUtil.release(((PendingWrite) msg).msg);
+                    ((PendingWrite) msg).promise.tryFailure(
+                            new IllegalStateException("endpoint closed"));
+                } else {
+                    ReferenceCountUtil.release(msg);
+                }
+            }
+
+            try {
+                inbound.close();
+                outbound.close();
+            } catch (IOException e) {
+                // the mappings stay valid, nothing left to do
+            }
+        }
+
+        private boolean flushPending() {
+            boolean flushed = false;
+
+            while (!pending.isEmpty() && outbound.offer(pending.peek())) {
+                ByteBuf frame = pending.poll();
+                pendingBytes -= frame.readableBytes();
+                frame.release();
+                flushed = true;
+            }
+
+            return flushed;
+        }
+    }
+
+    /**
+     * The embedded channel runs every call on the calling thread, so writes
+     * from other threads are passed to the pipeline thread here, in front
+     * of the codecs
+     */
+    private class WriteHandOver extends ChannelHandlerAdapter {
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg,
+                          ChannelPromise promise) throws Exception {
+            EventLoopThread thread = SharedMemoryEndpoint.this.thread;
+
+            if (Thread.currentThread() == thread) {
+                ctx.write(msg, promise);
+            } else if (thread == null || thread.shouldStop()) {
+                ReferenceCountUtil.release(msg);
+                promise.tryFailure(new IllegalStateException("endpoint is not started or closed"));
+            } else {
+                outgoing.add(new PendingWrite(ctx, msg, promise));
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void flush(ChannelHandlerContext ctx) throws Exception {
+            // writes of other threads are flushed by the pipeline thread
+            if (Thread.currentThread() == thread) {
+                ctx.flush();
+            }
+        }
+    }
+
+    private static class PendingWrite {
+        final ChannelHandlerContext ctx;
+        final Object msg;
+        final ChannelPromise promise;
+
+        PendingWrite(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+            this.ctx = ctx;
+            this.msg = msg;
+            this.promise = promise;
+        }
+    }
+
+    private class RingBufferWriter extends ChannelHandlerAdapter {
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg,
+                          ChannelPromise promise) throws Exception {
+            if (!(msg instanceof ByteBuf)) {
+                ctx.write(msg, promise);
+                return;
+            }
+
+            ByteBuf frame = (ByteBuf) msg;
+
+            if (pending.isEmpty() && outbound.offer(frame)) {
+                frame.release();
+            } else if (pendingBytes + frame.readableBytes() > maxPendingBytes) {
+                frame.release();
+                promise.tryFailure(new IllegalStateException("outbound ring buffer is full"));
+                return;
+            } else {
+                pendingBytes += frame.readableBytes();
+                pending.add(frame);
+            }
+
+            promise.trySuccess();
+        }
+    }
+
+    private class ListenerHandler extends ChannelHandlerAdapter {
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            if (listener != null) listener.onClientConnect(ctx);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            if (listener != null) listener.onClientDisconnect(ctx);
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            if (listener != null) listener.onMessageReceived(ctx, msg);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+            if (listener != null) listener.onExceptionCaught(ctx, cause);
+        }
+    }
+}
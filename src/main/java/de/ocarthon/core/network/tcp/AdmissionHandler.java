@@ -0,0 +1,254 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.tcp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of connections of a server and the rate at which each
+ * connection may send. Connections above the total or per address limit are
+ * closed right away, the listener does not get notified about them.<p>
+ * Every connection has a token bucket for messages and one for bytes, each
+ * holding up to one second worth of tokens. If a frame exceeds the available
+ * tokens it is still passed on, but reading is paused until the buckets
+ * have been refilled, so no data is dropped. The handler has to be placed
+ * directly behind the frame decoder.
+ */
+@ChannelHandler.Sharable
+public class AdmissionHandler extends ChannelHandlerAdapter {
+    private static final AttributeKey<State> STATE = AttributeKey.valueOf("AdmissionHandler.state");
+
+    private final int maxConnections;
+    private final int maxConnectionsPerAddress;
+    private final long messagesPerSecond;
+    private final long bytesPerSecond;
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final Map<InetAddress, Integer> addressConnections = new ConcurrentHashMap<>();
+    private final AtomicLong rejectedConnections = new AtomicLong();
+    private final AtomicLong throttledReads = new AtomicLong();
+
+    /**
+     * All limits can be disabled by passing 0
+     *
+     * @param maxConnections           maximum number of open connections
+     * @param maxConnectionsPerAddress maximum number of open connections from
+     *                                 one ip address
+     * @param messagesPerSecond        messages every connection may send per
+     *                                 second
+     * @param bytesPerSecond           bytes every connection may send per
+     *                                 second
+     */
+    public AdmissionHandler(int maxConnections, int maxConnectionsPerAddress,
+                            long messagesPerSecond, long bytesPerSecond) {
+        if (maxConnections < 0 || maxConnectionsPerAddress < 0 || messagesPerSecond < 0
+                || bytesPerSecond < 0) {
+            throw new IllegalArgumentException("limits must not be negative");
+        }
+
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+        this.messagesPerSecond = messagesPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        State state = new State(address(ctx.channel().remoteAddress()));
+        ctx.attr(STATE).set(state);
+
+        if (!admit(state.address)) {
+            state.rejected = true;
+            rejectedConnections.incrementAndGet();
+            ctx.close();
+            return;
+        }
+
+        ctx.fireChannelActive();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        State state = ctx.attr(STATE).get();
+
+        if (state != null && state.rejected) {
+            return;
+        }
+
+        if (state != null) {
+            release(state.address);
+            state.cancelResume();
+        }
+
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        State state = ctx.attr(STATE).get();
+
+        if (state != null && state.rejected) {
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+
+        if (state != null && (messagesPerSecond > 0 || bytesPerSecond > 0)) {
+            int size = msg instanceof ByteBuf ? ((ByteBuf) msg).readableBytes() : 0;
+            long delay = state.consume(size);
+
+            if (delay > 0 && state.resumeTask == null) {
+                throttledReads.incrementAndGet();
+                ReadPause.pause(ctx.channel(), ReadPause.ADMISSION);
+                state.resumeTask = ctx.executor().schedule(() -> {
+                    state.resumeTask = null;
+                    ReadPause.resume(ctx.channel(), ReadPause.ADMISSION);
+                }, delay, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        ctx.fireChannelRead(msg);
+    }
+
+    private boolean admit(InetAddress address) {
+        if (connections.incrementAndGet() > maxConnections && maxConnections > 0) {
+            connections.decrementAndGet();
+            return false;
+        }
+
+        if (address != null) {
+            int count = addressConnections.merge(address, 1, Integer::sum);
+
+            if (count > maxConnectionsPerAddress && maxConnectionsPerAddress > 0) {
+                release(address);
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void release(InetAddress address) {
+        connections.decrementAndGet();
+
+        if (address != null) {
+            addressConnections.computeIfPresent(address,
+                    (a, count) -> count <= 1 ? null : count - 1);
+        }
+    }
+
+    private static InetAddress address(SocketAddress address) {
+        return address instanceof InetSocketAddress
+                ? ((InetSocketAddress) address).getAddress() : null;
+    }
+
+    /**
+     * @return number of admitted connections that are currently open
+     */
+    public int getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * @param address the ip address
+     * @return number of admitted connections from the address that are
+     * currently open
+     */
+    public int getConnections(InetAddress address) {
+        Integer count = addressConnections.get(address);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * @return number of connections closed because a limit was reached
+     */
+    public long getRejectedConnections() {
+        return rejectedConnections.get();
+    }
+
+    /**
+     * @return how often reading of a connection has been paused
+     */
+    public long getThrottledReads() {
+        return throttledReads.get();
+    }
+
+    private class State {
+        private final InetAddress address;
+        private boolean rejected;
+        private double messageTokens = messagesPerSecond;
+        private double byteTokens = bytesPerSecond;
+        private long lastRefill = System.nanoTime();
+        private ScheduledFuture<?> resumeTask;
+
+        State(InetAddress address) {
+            this.address = address;
+        }
+
+        /**
+         * Takes tokens for one message of the given size
+         *
+         * @return nanoseconds until both buckets are no longer in debt
+         */
+        long consume(int size) {
+            long now = System.nanoTime();
+            double elapsed = (now - lastRefill) / (double) TimeUnit.SECONDS.toNanos(1);
+            lastRefill = now;
+
+            long delay = 0;
+
+            if (messagesPerSecond > 0) {
+                messageTokens = Math.min(messagesPerSecond,
+                        messageTokens + elapsed * messagesPerSecond) - 1;
+                delay = Math.max(delay, debt(messageTokens, messagesPerSecond));
+            }
+
+            if (bytesPerSecond > 0) {
+                byteTokens = Math.min(bytesPerSecond,
+                        byteTokens + elapsed * bytesPerSecond) - size;
+                delay = Math.max(delay, debt(byteTokens, bytesPerSecond));
+            }
+
+            return delay;
+        }
+
+        private long debt(double tokens, long rate) {
+            return tokens >= 0 ? 0 : (long) (-tokens / rate * TimeUnit.SECONDS.toNanos(1));
+        }
+
+        void cancelResume() {
+            if (resumeTask != null) {
+                resumeTask.cancel(false);
+                resumeTask = null;
+            }
+        }
+    }
+}
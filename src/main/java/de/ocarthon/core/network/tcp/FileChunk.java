@@ -0,0 +1,70 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.tcp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
+
+/**
+ * A part of a file sent with {@link FileTransferHandler}. Chunks of one
+ * transfer arrive in order. The listener has to release the chunk.
+ */
+public class FileChunk extends DefaultByteBufHolder {
+    private final int transferId;
+    private final long offset;
+    private final long fileLength;
+    private final boolean last;
+
+    public FileChunk(int transferId, long offset, long fileLength, ByteBuf data) {
+        super(data);
+        this.transferId = transferId;
+        this.offset = offset;
+        this.fileLength = fileLength;
+        this.last = offset + data.readableBytes() >= fileLength;
+    }
+
+    public int getTransferId() {
+        return transferId;
+    }
+
+    /**
+     * @return position of the chunk in the file
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return length of the whole file
+     */
+    public long getFileLength() {
+        return fileLength;
+    }
+
+    /**
+     * @return whether this chunk ends the transfer
+     */
+    public boolean isLast() {
+        return last;
+    }
+
+    @Override
+    public String toString() {
+        return "FileChunk(transfer: " + transferId + ", offset: " + offset + ", file length: "
+                + fileLength + ")";
+    }
+}
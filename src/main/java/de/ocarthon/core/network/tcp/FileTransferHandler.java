@@ -0,0 +1,299 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.tcp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.stream.ChunkedNioFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Sends files as a sequence of {@link FileChunk} frames next to the regular
+ * messages. Every frame gets a type byte, so both sides have to install the
+ * handler. It has to be placed behind the frame decoder.<p>
+ * On plaintext channels the file data is written as {@link DefaultFileRegion},
+ * so it is transferred by the kernel (sendfile) without being copied into the
+ * heap. The regions of a transfer share one file channel that is closed
+ * when the transfer completes or fails. These chunks are written in front of
+ * the frame decoder, so handlers behind it, like the
+ * {@link de.ocarthon.core.network.capture.CaptureHandler}, do not see them.
+ * On TLS channels the data has to be encrypted and is read with a
+ * {@link ChunkedNioFile}. Only a few chunks are in flight at a time and
+ * nothing is written while the channel is not writable. Transfers of one
+ * channel are sent one after another.
+ */
+public class FileTransferHandler extends ChannelHandlerAdapter {
+    private static final byte MESSAGE = 0;
+    private static final byte FILE_CHUNK = 1;
+
+    private static final int CHUNK_HEADER_LENGTH = 1 + 4 + 8 + 8;
+    // the frame decoder counts the 2 byte length field against its maximum
+    private static final int MAX_CHUNK_LENGTH = 65535 - 2 - CHUNK_HEADER_LENGTH;
+    private static final int MAX_CHUNKS_IN_FLIGHT = 4;
+
+    private final Queue<Transfer> transfers = new ArrayDeque<>();
+    private ChannelHandlerContext ctx;
+    private int chunksInFlight;
+
+    /**
+     * Sends a file or the rest of it over a channel with an installed
+     * handler. Can be called from any thread.
+     *
+     * @param channel    the channel
+     * @param transferId id passed to the receiver with every chunk
+     * @param file       the file
+     * @param offset     position in the file to start at, used to resume
+     *                   interrupted transfers
+     * @return future that completes once the last chunk has been written
+     */
+    public static ChannelFuture sendFile(Channel channel, int transferId, File file, long offset) {
+        FileTransferHandler handler = channel.pipeline().get(FileTransferHandler.class);
+
+        if (handler == null) {
+            throw new IllegalStateException("file transfer is not enabled");
+        }
+
+        ChannelPromise promise = channel.newPromise();
+        channel.eventLoop().execute(() -> handler.start(transferId, file, offset, promise));
+        return promise;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof ByteBuf)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        ByteBuf buf = (ByteBuf) msg;
+        if (!buf.isReadable()) {
+            // ping
+            ctx.fireChannelRead(buf);
+            return;
+        }
+
+        byte type = buf.readByte();
+
+        if (type == MESSAGE) {
+            ctx.fireChannelRead(buf);
+        } else if (type == FILE_CHUNK && buf.readableBytes() >= CHUNK_HEADER_LENGTH - 1) {
+            int transferId = buf.readInt();
+            long offset = buf.readLong();
+            long fileLength = buf.readLong();
+            ctx.fireChannelRead(new FileChunk(transferId, offset, fileLength, buf));
+        } else {
+            buf.release();
+            throw new CorruptedFrameException("unknown frame type: " + type);
+        }
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof ByteBuf && ((ByteBuf) msg).isReadable()) {
+            ByteBuf type = ctx.alloc().buffer(1).writeByte(MESSAGE);
+            msg = Unpooled.wrappedBuffer(type, (ByteBuf) msg);
+        }
+
+        ctx.write(msg, promise);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        pump();
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        Transfer transfer;
+        while ((transfer = transfers.poll()) != null) {
+            transfer.fail(new ClosedChannelException());
+        }
+
+        ctx.fireChannelInactive();
+    }
+
+    private void start(int transferId, File file, long offset, ChannelPromise promise) {
+        if (!ctx.channel().isActive()) {
+            promise.tryFailure(new ClosedChannelException());
+            return;
+        }
+
+        try {
+            transfers.add(new Transfer(transferId, file, offset, promise,
+                    ctx.pipeline().get(SslHandler.class) != null));
+        } catch (IOException e) {
+            promise.tryFailure(e);
+            return;
+        }
+
+        pump();
+    }
+
+    private void pump() {
+        boolean written = false;
+
+        while (!transfers.isEmpty() && chunksInFlight < MAX_CHUNKS_IN_FLIGHT
+                && ctx.channel().isWritable()) {
+            Transfer transfer = transfers.peek();
+
+            try {
+                ChannelFuture future = transfer.writeChunk();
+                boolean last = transfer.isDone();
+                chunksInFlight++;
+                written = true;
+
+                future.addListener((ChannelFutureListener) f -> {
+                    chunksInFlight--;
+
+                    if (!f.isSuccess()) {
+                        transfer.fail(f.cause());
+                    } else if (last) {
+                        transfer.complete();
+                    }
+
+                    pump();
+                });
+
+                if (last) {
+                    transfers.poll();
+                }
+            } catch (Exception e) {
+                transfers.poll();
+                transfer.fail(e);
+            }
+        }
+
+        if (written) {
+            ctx.flush();
+        }
+    }
+
+    private class Transfer {
+        private final int id;
+        private final RandomAccessFile file;
+        private final FileChannel fileChannel;
+        private final ChunkedNioFile chunkedFile;
+        private final long length;
+        private final ChannelPromise promise;
+        private long position;
+        private boolean started;
+
+        Transfer(int id, File file, long offset, ChannelPromise promise, boolean tls)
+                throws IOException {
+            this.id = id;
+            this.file = new RandomAccessFile(file, "r");
+            this.fileChannel = this.file.getChannel();
+            this.length = fileChannel.size();
+            this.promise = promise;
+            this.position = Math.min(offset, length);
+            this.chunkedFile = tls ? new ChunkedNioFile(fileChannel, position,
+                    length - position, MAX_CHUNK_LENGTH) : null;
+        }
+
+        ChannelFuture writeChunk() throws Exception {
+            int chunkLength = (int) Math.min(MAX_CHUNK_LENGTH, length - position);
+            ChannelFuture future;
+
+            if (chunkedFile != null) {
+                ByteBuf data = chunkLength > 0 ? chunkedFile.readChunk(ctx) : Unpooled.EMPTY_BUFFER;
+                future = ctx.write(Unpooled.wrappedBuffer(header(0), data));
+            } else {
+                // bypass the length prepender, the frame length covers the region
+                ChannelHandlerContext prepender = ctx.pipeline().context(LengthFieldPrepender.class);
+                future = prepender.write(header(chunkLength));
+
+                if (chunkLength > 0) {
+                    future = prepender.write(new ChunkRegion(fileChannel, position, chunkLength));
+                }
+            }
+
+            position += chunkLength;
+            started = true;
+            return future;
+        }
+
+        private ByteBuf header(int frameLength) {
+            ByteBuf header = ctx.alloc().buffer(2 + CHUNK_HEADER_LENGTH);
+
+            if (chunkedFile == null) {
+                header.writeShort(CHUNK_HEADER_LENGTH + frameLength);
+            }
+
+            return header.writeByte(FILE_CHUNK).writeInt(id).writeLong(position).writeLong(length);
+        }
+
+        boolean isDone() {
+            return started && position >= length;
+        }
+
+        void complete() {
+            close();
+            promise.trySuccess();
+        }
+
+        void fail(Throwable cause) {
+            close();
+            promise.tryFailure(cause);
+        }
+
+        private void close() {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+
+    /**
+     * A region of the file channel shared by all chunks of a transfer. The
+     * epoll transport only accepts {@link DefaultFileRegion}s, but unlike
+     * those the chunk leaves closing the channel to the transfer.
+     */
+    private static class ChunkRegion extends DefaultFileRegion {
+        ChunkRegion(FileChannel file, long position, long count) {
+            super(file, position, count);
+        }
+
+        @Override
+        protected void deallocate() {
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.tcp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.MessageToMessageCodec;
+import io.netty.handler.codec.TooLongFrameException;
+
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses single frames with zlib. Every frame starts with a flag
+ * byte telling whether the rest of the frame is compressed. Frames smaller
+ * than the threshold and frames that do not get smaller are sent as they
+ * are.<p>
+ * Each frame is compressed on its own, so a preset dictionary containing
+ * byte sequences that are common in the messages improves the compression of
+ * small frames considerably. Both sides have to use the same dictionary.<p>
+ * Every channel keeps one deflater and one inflater, which are reset
+ * between frames instead of allocating new zlib state for each frame.
+ */
+public class FrameCompressionCodec extends MessageToMessageCodec<ByteBuf, ByteBuf> {
+    public static final int MAX_INFLATED_LENGTH = 1 << 20;
+
+    private static final byte RAW = 0;
+    private static final byte DEFLATED = 1;
+
+    private final Deflater deflater;
+    private final Inflater inflater = new Inflater();
+    private final int threshold;
+    private final byte[] dictionary;
+
+    /**
+     * @param threshold  frames with fewer bytes are not compressed
+     * @param dictionary the preset dictionary or null
+     */
+    public FrameCompressionCodec(int threshold, byte[] dictionary) {
+        this(Deflater.DEFAULT_COMPRESSION, threshold, dictionary);
+    }
+
+    /**
+     * @param level      compression level between 0 and 9
+     * @param threshold  frames with fewer bytes are not compressed
+     * @param dictionary the preset dictionary or null
+     */
+    public FrameCompressionCodec(int level, int threshold, byte[] dictionary) {
+        this.deflater = new Deflater(level);
+        this.threshold = threshold;
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        deflater.end();
+        inflater.end();
+        super.handlerRemoved(ctx);
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+        int length = msg.readableBytes();
+
+        if (length >= threshold && length > 1) {
+            ByteBuf compressed = deflate(ctx, msg);
+
+            if (compressed != null) {
+                out.add(compressed);
+                return;
+            }
+        }
+
+        ByteBuf flag = ctx.alloc().buffer(1).writeByte(RAW);
+        out.add(Unpooled.wrappedBuffer(flag, msg.retain()));
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+        if (!msg.isReadable()) {
+            throw new CorruptedFrameException("frame without compression flag");
+        }
+
+        byte flag = msg.readByte();
+
+        if (flag == RAW) {
+            out.add(msg.retain());
+        } else if (flag == DEFLATED) {
+            out.add(inflate(ctx, msg));
+        } else {
+            throw new CorruptedFrameException("unknown compression flag: " + flag);
+        }
+    }
+
+    /**
+     * @return the flagged and compressed frame or null if it would not be
+     * smaller than the input
+     */
+    private ByteBuf deflate(ChannelHandlerContext ctx, ByteBuf msg) {
+        int length = msg.readableBytes();
+        byte[] input;
+        int inputOffset;
+
+        if (msg.hasArray()) {
+            input = msg.array();
+            inputOffset = msg.arrayOffset() + msg.readerIndex();
+        } else {
+            input = new byte[length];
+            inputOffset = 0;
+            msg.getBytes(msg.readerIndex(), input);
+        }
+
+        // the compressed frame including the flag has to be smaller than the input
+        ByteBuf out = ctx.alloc().heapBuffer(length);
+        boolean success = false;
+
+        try {
+            out.writeByte(DEFLATED);
+
+            deflater.reset();
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+
+            deflater.setInput(input, inputOffset, length);
+            deflater.finish();
+
+            byte[] output = out.array();
+            int outputOffset = out.arrayOffset() + 1;
+            int written = 0;
+
+            while (!deflater.finished() && written < length - 1) {
+                int n = deflater.deflate(output, outputOffset + written, length - 1 - written);
+                if (n == 0) {
+                    break;
+                }
+                written += n;
+            }
+
+            if (!deflater.finished()) {
+                return null;
+            }
+
+            out.writerIndex(1 + written);
+            success = true;
+            return out;
+        } finally {
+            if (!success) {
+                out.release();
+            }
+        }
+    }
+
+    private ByteBuf inflate(ChannelHandlerContext ctx, ByteBuf msg) throws Exception {
+        int length = msg.readableBytes();
+        byte[] input = new byte[length];
+        msg.readBytes(input);
+
+        ByteBuf out = ctx.alloc().heapBuffer(Math.min(length * 4, MAX_INFLATED_LENGTH),
+                MAX_INFLATED_LENGTH);
+        boolean success = false;
+
+        try {
+            inflater.reset();
+            inflater.setInput(input, 0, length);
+
+            while (!inflater.finished()) {
+                if (!out.isWritable()) {
+                    if (out.writerIndex() == MAX_INFLATED_LENGTH) {
+                        throw new TooLongFrameException("inflated frame exceeds "
+                                + MAX_INFLATED_LENGTH + " bytes");
+                    }
+
+                    out.ensureWritable(Math.min(out.capacity(),
+                            MAX_INFLATED_LENGTH - out.writerIndex()));
+                }
+
+                int n = inflater.inflate(out.array(), out.arrayOffset() + out.writerIndex(),
+                        out.writableBytes());
+                out.writerIndex(out.writerIndex() + n);
+
+                if (n == 0 && inflater.needsDictionary()) {
+                    if (dictionary == null) {
+                        throw new CorruptedFrameException("frame needs a dictionary");
+                    }
+
+                    try {
+                        inflater.setDictionary(dictionary);
+                    } catch (IllegalArgumentException e) {
+                        throw new CorruptedFrameException("frame needs a different dictionary");
+                    }
+                } else if (n == 0 && inflater.needsInput()) {
+                    throw new CorruptedFrameException("truncated compressed frame");
+                }
+            }
+
+            success = true;
+            return out;
+        } catch (DataFormatException e) {
+            throw new CorruptedFrameException("inflation failed: " + e.getMessage());
+        } finally {
+            if (!success) {
+                out.release();
+            }
+        }
+    }
+}
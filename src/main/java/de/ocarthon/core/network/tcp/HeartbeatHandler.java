@@ -0,0 +1,99 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.tcp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps connections alive and closes dead ones. If nothing has been written
+ * for the ping interval, an empty frame is sent as ping. If nothing has been
+ * received within the read timeout, the reader idle event is passed on to the
+ * {@link TCPListener} and the connection is closed. The read timeout starts
+ * over if reading has been paused in the meantime, e.g. by the admission
+ * rate limit.<p>
+ * Empty frames are reserved for pings and are never passed on, so both sides
+ * should enable heartbeats with a ping interval shorter than the read timeout
+ * of the other side.
+ */
+@ChannelHandler.Sharable
+public class HeartbeatHandler extends ChannelHandlerAdapter {
+    public static final HeartbeatHandler INSTANCE = new HeartbeatHandler();
+
+    private HeartbeatHandler() {
+    }
+
+    /**
+     * Adds idle detection and the heartbeat handler to the pipeline. This has
+     * to be called directly after the frame decoder has been added.
+     *
+     * @param p            the pipeline
+     * @param readTimeout  time without received data after which the
+     *                     connection is closed, 0 to disable
+     * @param pingInterval time without written data after which a ping is
+     *                     sent, 0 to disable
+     * @param unit         unit of both times
+     */
+    public static void install(ChannelPipeline p, long readTimeout, long pingInterval,
+                               TimeUnit unit) {
+        p.addLast("idleState", new IdleStateHandler(readTimeout, pingInterval, 0, unit));
+        p.addLast("heartbeat", INSTANCE);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof ByteBuf && !((ByteBuf) msg).isReadable()) {
+            // ping, the idle state handler has already seen it
+            ((ByteBuf) msg).release();
+            return;
+        }
+
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof IdleStateEvent) {
+            IdleState state = ((IdleStateEvent) evt).state();
+
+            if (state == IdleState.WRITER_IDLE) {
+                ctx.writeAndFlush(Unpooled.EMPTY_BUFFER);
+                return;
+            } else if (state == IdleState.READER_IDLE) {
+                if (ReadPause.pausedSinceIdleCheck(ctx.channel())) {
+                    // the data of the peer is held back, wait for the next timeout
+                    return;
+                }
+
+                ctx.fireUserEventTriggered(evt);
+                ctx.close();
+                return;
+            }
+        }
+
+        ctx.fireUserEventTriggered(evt);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.tcp;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.AttributeKey;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Passes all callbacks to another listener on the given executor instead of
+ * the I/O thread. Callbacks of one channel are run one after another in the
+ * order they occurred, callbacks of different channels may run in parallel.<p>
+ * If more than {@code maxQueueDepth} callbacks of a channel are waiting,
+ * reading from the channel is paused until half of them have been processed.
+ * As reading stops with a delay, the queue may grow slightly beyond the limit.
+ */
+public class OrderedTCPListener implements TCPListener {
+    private static final AttributeKey<ChannelQueue> QUEUE =
+            AttributeKey.valueOf("OrderedTCPListener.queue");
+    private static final int MAX_BATCH = 64;
+
+    private final TCPListener listener;
+    private final Executor executor;
+    private final int maxQueueDepth;
+
+    /**
+     * @param listener      the listener whose callbacks are offloaded
+     * @param executor      the executor that runs the callbacks
+     * @param maxQueueDepth number of waiting callbacks per channel after
+     *                      which reading is paused
+     */
+    public OrderedTCPListener(TCPListener listener, Executor executor, int maxQueueDepth) {
+        if (maxQueueDepth < 1) {
+            throw new IllegalArgumentException("maxQueueDepth must be positive");
+        }
+
+        this.listener = listener;
+        this.executor = executor;
+        this.maxQueueDepth = maxQueueDepth;
+    }
+
+    @Override
+    public void onClientConnect(ChannelHandlerContext ctx) {
+        queue(ctx.channel()).execute(() -> listener.onClientConnect(ctx));
+    }
+
+    @Override
+    public void onClientDisconnect(ChannelHandlerContext ctx) {
+        queue(ctx.channel()).execute(() -> listener.onClientDisconnect(ctx));
+    }
+
+    @Override
+    public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+        queue(ctx.channel()).execute(() -> listener.onMessageReceived(ctx, message));
+    }
+
+    @Override
+    public void onExceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        queue(ctx.channel()).execute(() -> listener.onExceptionCaught(ctx, cause));
+    }
+
+    @Override
+    public void onClientIdle(ChannelHandlerContext ctx) {
+        queue(ctx.channel()).execute(() -> listener.onClientIdle(ctx));
+    }
+
+    /**
+     * @param channel the channel
+     * @return number of callbacks of the channel that have not yet finished
+     */
+    public int getQueueDepth(Channel channel) {
+        ChannelQueue queue = channel.attr(QUEUE).get();
+        return queue != null ? queue.size.get() : 0;
+    }
+
+    public TCPListener getListener() {
+        return listener;
+    }
+
+    private ChannelQueue queue(Channel channel) {
+        ChannelQueue queue = channel.attr(QUEUE).get();
+
+        if (queue == null) {
+            ChannelQueue newQueue = new ChannelQueue(channel);
+            queue = channel.attr(QUEUE).setIfAbsent(newQueue);
+
+            if (queue == null) {
+                queue = newQueue;
+            }
+        }
+
+        return queue;
+    }
+
+    private class ChannelQueue implements Runnable {
+        private final Channel channel;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicBoolean running = new AtomicBoolean();
+        private volatile boolean paused;
+
+        ChannelQueue(Channel channel) {
+            this.channel = channel;
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+
+            if (size.incrementAndGet() >= maxQueueDepth && !paused) {
+                pause();
+            }
+
+            schedule();
+        }
+
+        private synchronized void pause() {
+            if (!paused && size.get() >= maxQueueDepth) {
+                paused = true;
+                ReadPause.pause(channel, ReadPause.LISTENER_QUEUE);
+            }
+        }
+
+        private synchronized void resume() {
+            if (paused && size.get() <= maxQueueDepth / 2) {
+                paused = false;
+                ReadPause.resume(channel, ReadPause.LISTENER_QUEUE);
+            }
+        }
+
+        private void schedule() {
+            if (running.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    running.set(false);
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                Runnable task;
+                for (int i = 0; i < MAX_BATCH && (task = tasks.poll()) != null; i++) {
+                    try {
+                        task.run();
+                    } finally {
+                        if (size.decrementAndGet() <= maxQueueDepth / 2 && paused) {
+                            resume();
+                        }
+                    }
+                }
+            } finally {
+                running.set(false);
+
+                // give other channels a chance if this one is busy
+                if (!tasks.isEmpty()) {
+                    schedule();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.tcp;
+
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+
+/**
+ * Pauses reading of a channel for several independent causes. Reading is
+ * only resumed once every cause that paused it has been resolved, so e.g.
+ * the end of a rate limit does not resume a channel whose listener queue is
+ * still full.<p>
+ * Nothing is received while reading is paused, so the read timeout of the
+ * {@link HeartbeatHandler} has to be ignored for that time.
+ */
+final class ReadPause {
+    static final int ADMISSION = 1;
+    static final int LISTENER_QUEUE = 1 << 1;
+
+    private static final AttributeKey<ReadPause> PAUSE = AttributeKey.valueOf(ReadPause.class, "pause");
+
+    private int causes;
+    private boolean pausedSinceIdleCheck;
+
+    private ReadPause() {
+    }
+
+    /**
+     * Stops reading until the cause is resumed
+     */
+    static void pause(Channel channel, int cause) {
+        get(channel).update(channel, cause, true);
+    }
+
+    /**
+     * Resumes reading if no other cause is pausing the channel
+     */
+    static void resume(Channel channel, int cause) {
+        get(channel).update(channel, cause, false);
+    }
+
+    static boolean isPaused(Channel channel, int cause) {
+        ReadPause pause = channel.attr(PAUSE).get();
+        return pause != null && pause.isPaused(cause);
+    }
+
+    /**
+     * Called when no data has been received for the read timeout
+     *
+     * @return whether reading has been paused since the last call, in which
+     * case the missing data is not the fault of the peer
+     */
+    static boolean pausedSinceIdleCheck(Channel channel) {
+        ReadPause pause = channel.attr(PAUSE).get();
+        return pause != null && pause.checkIdle();
+    }
+
+    private static ReadPause get(Channel channel) {
+        Attribute<ReadPause> attr = channel.attr(PAUSE);
+        ReadPause pause = attr.get();
+
+        if (pause == null) {
+            ReadPause created = new ReadPause();
+            pause = attr.setIfAbsent(created);
+            if (pause == null) {
+                pause = created;
+            }
+        }
+
+        return pause;
+    }
+
+    private synchronized boolean isPaused(int cause) {
+        return (causes & cause) != 0;
+    }
+
+    private synchronized boolean checkIdle() {
+        boolean paused = pausedSinceIdleCheck || causes != 0;
+        pausedSinceIdleCheck = causes != 0;
+        return paused;
+    }
+
+    private synchronized void update(Channel channel, int cause, boolean pause) {
+        int old = causes;
+        causes = pause ? old | cause : old & ~cause;
+        pausedSinceIdleCheck |= causes != 0;
+
+        if (old == 0 && causes != 0) {
+            channel.config().setAutoRead(false);
+        } else if (old != 0 && causes == 0) {
+            channel.config().setAutoRead(true);
+        }
+    }
+}
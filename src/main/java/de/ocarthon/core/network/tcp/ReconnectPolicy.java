@@ -0,0 +1,74 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.tcp;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exponential backoff with jitter used by {@link TCPClient} to reconnect.
+ * The delay doubles with every failed attempt until it reaches the maximum.
+ * Only half of the delay is fixed, the other half is random, so that many
+ * clients losing their connection at the same time do not reconnect at the
+ * same time.
+ */
+public class ReconnectPolicy {
+    private final long initialDelayMs;
+    private final long maxDelayMs;
+
+    /**
+     * @param initialDelay delay of the first attempt, delays below one
+     *                     millisecond are raised to one millisecond
+     * @param maxDelay     maximum delay
+     * @param unit         unit of both delays
+     */
+    public ReconnectPolicy(long initialDelay, long maxDelay, TimeUnit unit) {
+        if (initialDelay <= 0 || maxDelay < initialDelay) {
+            throw new IllegalArgumentException("invalid delays: " + initialDelay + ", "
+                    + maxDelay);
+        }
+
+        // sub millisecond delays would round down to a busy reconnect loop
+        this.initialDelayMs = Math.max(1, unit.toMillis(initialDelay));
+        this.maxDelayMs = Math.max(initialDelayMs, unit.toMillis(maxDelay));
+    }
+
+    /**
+     * Returns the delay before the given reconnect attempt
+     *
+     * @param attempt the number of failed attempts since the last successful
+     *                connect, starting at 0
+     * @return the delay in milliseconds
+     */
+    public long getDelay(int attempt) {
+        long delay = maxDelayMs;
+        if (attempt < 62 && initialDelayMs <= (maxDelayMs >> attempt)) {
+            delay = initialDelayMs << attempt;
+        }
+
+        long half = delay / 2;
+        return Math.max(1, half + ThreadLocalRandom.current().nextLong(delay - half + 1));
+    }
+
+    public long getInitialDelay(TimeUnit unit) {
+        return unit.convert(initialDelayMs, TimeUnit.MILLISECONDS);
+    }
+
+    public long getMaxDelay(TimeUnit unit) {
+        return unit.convert(maxDelayMs, TimeUnit.MILLISECONDS);
+    }
+}
@@ -16,32 +16,72 @@
 
 package de.ocarthon.core.network.tcp;
 
+import de.ocarthon.core.network.EventLoopResources;
+import de.ocarthon.core.network.capture.CaptureHandler;
+import de.ocarthon.core.network.capture.CaptureWriter;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerAdapter;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDomainSocketChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.codec.LengthFieldPrepender;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
 
+import java.io.File;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 public class TCPClient {
     private final TCPClientHandler handler = new TCPClientHandler();
     private final int lengthBytes = 2;
     private final boolean useTls;
-    private EventLoopGroup group;
+    private final EventLoopGroup group;
+    private final boolean ownsGroup;
+    private final EventLoopResources resources;
     private Bootstrap bootstrap;
-    private Channel channel;
+    private ChannelInitializer<Channel> channelInitializer;
+    private volatile Channel channel;
     private Consumer<ChannelPipeline> pipelineCodec;
     private LengthFieldPrepender lengthPrepender = new LengthFieldPrepender(lengthBytes);
+    private long readTimeoutMs = 0;
+    private long pingIntervalMs = 0;
+    private int compressionThreshold = -1;
+    private byte[] compressionDictionary;
+    private boolean fileTransfer;
+    private CaptureHandler captureHandler;
+    private TCPListener listener;
+    private Executor listenerExecutor;
+    private int maxQueueDepth;
+    private String host;
+    private int port;
+    private String domainSocketPath;
+    private Bootstrap domainBootstrap;
+    private EventLoopGroup domainGroup;
+    private ReconnectPolicy reconnectPolicy;
+    private Queue<Object> sendBuffer;
+    private int reconnectAttempts = 0;
+    private ScheduledFuture<?> reconnectFuture;
+    private volatile boolean released = false;
 
     public TCPClient(NioEventLoopGroup group, boolean useTls) {
         this.useTls = useTls;
@@ -51,6 +91,23 @@ public class TCPClient {
         } else {
             this.group = new NioEventLoopGroup();
         }
+
+        this.ownsGroup = true;
+        this.resources = null;
+    }
+
+    /**
+     * Creates a client that uses the worker group of the given resources. The
+     * group is not shut down by {@link #release()}.
+     *
+     * @param useTls    whether the connection is encrypted
+     * @param resources the event loops to use
+     */
+    public TCPClient(boolean useTls, EventLoopResources resources) {
+        this.useTls = useTls;
+        this.group = resources.getWorkerGroup();
+        this.ownsGroup = false;
+        this.resources = resources;
     }
 
     public TCPClient() {
@@ -62,63 +119,368 @@ public class TCPClient {
     }
 
     public void initBootstrap() {
+        this.channelInitializer = new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) throws Exception {
+                ChannelPipeline p = ch.pipeline();
+
+                // TLS
+                if (useTls) {
+                    p.addLast(SslContext.newClientContext(
+                            InsecureTrustManagerFactory.INSTANCE)
+                            .newHandler(ch.alloc()));
+                }
+
+                p.addLast(lengthPrepender);
+                p.addLast(new LengthFieldBasedFrameDecoder(65535 /* (2^16)-1 */, 0,
+                        lengthBytes, 0, lengthBytes));
+
+                if (captureHandler != null) {
+                    p.addLast(captureHandler);
+                }
+
+                if (fileTransfer) {
+                    p.addLast(new FileTransferHandler());
+                }
+
+                if (readTimeoutMs > 0 || pingIntervalMs > 0) {
+                    HeartbeatHandler.install(p, readTimeoutMs, pingIntervalMs,
+                            TimeUnit.MILLISECONDS);
+                }
+
+                if (compressionThreshold >= 0) {
+                    p.addLast(new FrameCompressionCodec(compressionThreshold,
+                            compressionDictionary));
+                }
+
+                if (pipelineCodec != null) {
+                    pipelineCodec.accept(p);
+                }
+
+                p.addLast(handler);
+            }
+        };
+
         this.bootstrap = new Bootstrap();
         this.bootstrap.group(group)
                 .channel(NioSocketChannel.class)
-                .handler(new ChannelInitializer<Channel>() {
-                    @Override
-                    protected void initChannel(Channel ch) throws Exception {
-                        ChannelPipeline p = ch.pipeline();
-
-                        // TLS
-                        if (useTls) {
-                            p.addLast(SslContext.newClientContext(
-                                    InsecureTrustManagerFactory.INSTANCE)
-                                    .newHandler(ch.alloc()));
-                        }
+                .handler(channelInitializer);
+    }
 
-                        p.addLast(lengthPrepender);
-                        p.addLast(new LengthFieldBasedFrameDecoder(65535 /* (2^16)-1 */, 0,
-                                lengthBytes, 0, lengthBytes));
+    public boolean connect(String host, int port) throws InterruptedException {
+        ChannelFuture cf = connectAsync(host, port);
+        cf.sync();
 
-                        if (pipelineCodec != null) {
-                            pipelineCodec.accept(p);
-                        }
+        if (cf.isSuccess()) {
+            this.channel = cf.channel();
+        }
 
-                        p.addLast(handler);
-                    }
-                });
+        return cf.isSuccess();
     }
 
-    public boolean connect(String host, int port) throws InterruptedException {
+    /**
+     * Connects to the given host without blocking. If auto reconnect is
+     * enabled, failed attempts are retried according to the
+     * {@link ReconnectPolicy}.
+     *
+     * @param host the host
+     * @param port the port
+     * @return the future of this connection attempt
+     */
+    public ChannelFuture connectAsync(String host, int port) {
         if (bootstrap != null) {
-            ChannelFuture cf = bootstrap.connect(host, port);
-            cf.sync();
+            this.host = host;
+            this.port = port;
+            this.domainSocketPath = null;
 
-            if (cf.isSuccess()) {
-                this.channel = cf.channel();
-            }
-
-            return cf.isSuccess();
+            return doConnect();
         } else {
             throw new IllegalStateException("TCPClient#setup() must be called first!");
         }
     }
 
+    public boolean connectDomainSocket(String path) throws InterruptedException {
+        ChannelFuture cf = connectDomainSocketAsync(path);
+        cf.sync();
+
+        if (cf.isSuccess()) {
+            this.channel = cf.channel();
+        }
+
+        return cf.isSuccess();
+    }
+
+    /**
+     * Connects to a unix domain socket without blocking. The connection uses
+     * the same pipeline as tcp connections, reconnects work the same way.
+     * This needs the native epoll transport, which is only available on linux.
+     *
+     * @param path path of the socket file
+     * @return the future of this connection attempt
+     */
+    public ChannelFuture connectDomainSocketAsync(String path) {
+        if (channelInitializer == null) {
+            throw new IllegalStateException("TCPClient#setup() must be called first!");
+        } else if (!Epoll.isAvailable()) {
+            throw new IllegalStateException("domain sockets need the native epoll transport",
+                    Epoll.unavailabilityCause());
+        }
+
+        if (domainBootstrap == null) {
+            domainGroup = resources != null ? resources.getEpollWorkerGroup()
+                    : new EpollEventLoopGroup(1);
+            domainBootstrap = new Bootstrap();
+            domainBootstrap.group(domainGroup)
+                    .channel(EpollDomainSocketChannel.class)
+                    .handler(channelInitializer);
+        }
+
+        this.domainSocketPath = path;
+        return doConnect();
+    }
+
+    private ChannelFuture doConnect() {
+        ChannelFuture cf = domainSocketPath != null
+                ? domainBootstrap.connect(new DomainSocketAddress(domainSocketPath))
+                : bootstrap.connect(host, port);
+        cf.addListener((ChannelFutureListener) f -> {
+            if (f.isSuccess()) {
+                this.channel = f.channel();
+                synchronized (this) {
+                    reconnectAttempts = 0;
+                }
+
+                flushSendBuffer();
+            } else {
+                scheduleReconnect();
+            }
+        });
+
+        return cf;
+    }
+
+    /**
+     * Enables automatic reconnects. If the connection is lost or a connection
+     * attempt fails, a new attempt is scheduled according to the given policy.
+     * Messages sent through {@link #send(Object)} while disconnected are
+     * buffered and sent once the connection is back.
+     *
+     * @param policy         the backoff policy
+     * @param sendBufferSize maximum number of buffered messages, 0 to disable
+     *                       buffering
+     */
+    public void enableAutoReconnect(ReconnectPolicy policy, int sendBufferSize) {
+        this.reconnectPolicy = policy;
+        this.sendBuffer = sendBufferSize > 0 ? new ArrayBlockingQueue<>(sendBufferSize) : null;
+    }
+
+    public boolean isAutoReconnectEnabled() {
+        return reconnectPolicy != null;
+    }
+
+    /**
+     * Writes and flushes the message if the client is connected. Otherwise
+     * the message is buffered if auto reconnect is enabled.
+     *
+     * @param msg the message
+     * @return false if the message was dropped because the client is not
+     * connected and the buffer is full or disabled
+     */
+    public boolean send(Object msg) {
+        Channel channel = this.channel;
+
+        if (sendBuffer == null) {
+            if (channel != null && channel.isActive()) {
+                channel.writeAndFlush(msg);
+                return true;
+            }
+        } else if (sendBuffer.isEmpty() && channel != null && channel.isActive()) {
+            channel.writeAndFlush(msg);
+            return true;
+        } else if (sendBuffer.offer(msg)) {
+            if (channel != null && channel.isActive()) {
+                // the connection came back while adding the message
+                flushSendBuffer();
+            }
+
+            return true;
+        }
+
+        ReferenceCountUtil.release(msg);
+        return false;
+    }
+
+    /**
+     * @return the number of buffered messages waiting for a connection
+     */
+    public int getBufferedMessages() {
+        return sendBuffer != null ? sendBuffer.size() : 0;
+    }
+
+    private void flushSendBuffer() {
+        Channel channel = this.channel;
+
+        if (sendBuffer != null && channel != null) {
+            channel.eventLoop().execute(() -> {
+                if (!channel.isActive()) {
+                    return;
+                }
+
+                Object msg;
+                while ((msg = sendBuffer.poll()) != null) {
+                    channel.write(msg);
+                }
+
+                channel.flush();
+            });
+        }
+    }
+
+    private synchronized void scheduleReconnect() {
+        boolean hasTarget = host != null || domainSocketPath != null;
+        if (reconnectPolicy == null || released || !hasTarget || reconnectFuture != null) {
+            return;
+        }
+
+        long delay = reconnectPolicy.getDelay(reconnectAttempts++);
+        reconnectFuture = group.schedule(this::reconnect, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void reconnect() {
+        synchronized (this) {
+            reconnectFuture = null;
+        }
+
+        if (!released) {
+            doConnect();
+        }
+    }
+
     public void release() {
+        close();
+
+        if (domainGroup != null && resources == null) {
+            domainGroup.shutdownGracefully().awaitUninterruptibly();
+        }
+
+        if (ownsGroup) {
+            group.shutdownGracefully().awaitUninterruptibly();
+        }
+    }
+
+    /**
+     * Closes the connection and stops reconnecting, but leaves the event loop
+     * group running. Use this if the group is shared with other clients.
+     */
+    public void close() {
+        released = true;
+
+        synchronized (this) {
+            if (reconnectFuture != null) {
+                reconnectFuture.cancel(false);
+            }
+        }
+
+        if (sendBuffer != null) {
+            Object msg;
+            while ((msg = sendBuffer.poll()) != null) {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+
         if (channel != null && channel.isActive()) {
             channel.close().awaitUninterruptibly();
         }
-
-        group.shutdownGracefully().awaitUninterruptibly();
     }
 
     public Channel getChannel() {
         return this.channel;
     }
 
+    /**
+     * Enables heartbeats for all connections opened after this call. An empty
+     * frame is sent if nothing has been written for the ping interval and the
+     * connection is closed if nothing has been received within the read
+     * timeout.
+     *
+     * @param readTimeout  the read timeout, 0 to disable
+     * @param pingInterval the ping interval, 0 to disable
+     * @param unit         unit of both times
+     * @see HeartbeatHandler
+     */
+    public void setHeartbeat(long readTimeout, long pingInterval, TimeUnit unit) {
+        this.readTimeoutMs = unit.toMillis(readTimeout);
+        this.pingIntervalMs = unit.toMillis(pingInterval);
+    }
+
+    /**
+     * Compresses frames of all connections opened after this call. Both sides
+     * have to enable compression with the same dictionary. Compressed frames
+     * carry an additional flag byte.
+     *
+     * @param threshold  frames with fewer bytes are sent uncompressed
+     * @param dictionary preset dictionary with byte sequences common in the
+     *                   messages, may be null
+     * @see FrameCompressionCodec
+     */
+    public void enableCompression(int threshold, byte[] dictionary) {
+        this.compressionThreshold = threshold;
+        this.compressionDictionary = dictionary;
+    }
+
+    /**
+     * Records the frames of all connections opened after this call. Capturing
+     * stops when the writer is closed.
+     *
+     * @param writer the capture to append to
+     * @return the capture handler
+     * @see CaptureWriter
+     */
+    public CaptureHandler enableCapture(CaptureWriter writer) {
+        captureHandler = new CaptureHandler(writer);
+        return captureHandler;
+    }
+
+    /**
+     * Allows sending files over connections opened after this call. Both
+     * sides have to enable file transfers, every frame then carries an
+     * additional type byte. Received files are passed to the listener as
+     * {@link FileChunk}s.
+     *
+     * @see FileTransferHandler
+     */
+    public void enableFileTransfer() {
+        this.fileTransfer = true;
+    }
+
+    /**
+     * Sends a file to the server. On plaintext connections the file is not
+     * copied into memory but transferred by the kernel.
+     *
+     * @param transferId id passed to the receiver with every chunk
+     * @param file       the file
+     * @param offset     position to start at, to resume a transfer
+     * @return future that completes once the file has been written
+     * @see FileTransferHandler#sendFile(Channel, int, File, long)
+     */
+    public ChannelFuture sendFile(int transferId, File file, long offset) {
+        if (channel == null) {
+            throw new IllegalStateException("not connected");
+        }
+
+        return FileTransferHandler.sendFile(channel, transferId, file, offset);
+    }
+
+    /**
+     * Adds handlers between the framing and the listener. Codecs are added
+     * to the pipeline in the order they were registered, the first one is
+     * closest to the network.
+     *
+     * @param pipelineCodec adds the handlers to the pipeline
+     */
     public void addCustomCodec(Consumer<ChannelPipeline> pipelineCodec) {
-        this.pipelineCodec = pipelineCodec;
+        this.pipelineCodec = this.pipelineCodec != null
+                ? this.pipelineCodec.andThen(pipelineCodec) : pipelineCodec;
     }
 
     public EventLoopGroup getEventLoopGroup() {
@@ -126,13 +488,33 @@ public class TCPClient {
     }
 
     public void setListener(TCPListener listener) {
-        this.handler.setListener(listener);
+        this.listener = listener;
+        this.handler.setListener(listenerExecutor != null && listener != null
+                ? new OrderedTCPListener(listener, listenerExecutor, maxQueueDepth) : listener);
+    }
+
+    /**
+     * Runs all listener callbacks on the given executor instead of the I/O
+     * thread, so that the listener may block. Callbacks of one connection
+     * keep their order.
+     *
+     * @param executor      the executor, null to call the listener on the
+     *                      I/O thread
+     * @param maxQueueDepth number of waiting callbacks of a connection after
+     *                      which reading from it is paused
+     * @see OrderedTCPListener
+     */
+    public void setListenerExecutor(Executor executor, int maxQueueDepth) {
+        this.listenerExecutor = executor;
+        this.maxQueueDepth = maxQueueDepth;
+        setListener(listener);
     }
 
     public TCPClientHandler getClientHandler() {
         return this.handler;
     }
 
+    @ChannelHandler.Sharable
     private class TCPClientHandler extends ChannelHandlerAdapter {
         private TCPListener listener;
 
@@ -147,6 +529,7 @@ public class TCPClient {
         @Override
         public void channelInactive(ChannelHandlerContext ctx) throws Exception {
             if (listener != null) listener.onClientDisconnect(ctx);
+            scheduleReconnect();
         }
 
         @Override
@@ -159,6 +542,16 @@ public class TCPClient {
             if (listener != null) listener.onExceptionCaught(ctx, cause);
         }
 
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent
+                    && ((IdleStateEvent) evt).state() == IdleState.READER_IDLE) {
+                if (listener != null) listener.onClientIdle(ctx);
+            } else {
+                ctx.fireUserEventTriggered(evt);
+            }
+        }
+
         public void setListener(TCPListener listener) {
             this.listener = listener;
         }
@@ -0,0 +1,331 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.tcp;
+
+import de.ocarthon.core.network.EventLoopResources;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Keeps connections to several endpoints (or several connections to the same
+ * endpoint) and spreads the messages sent through {@link #send(Object)}
+ * over them. All connections share one event loop group.<p>
+ * A connection is considered healthy if it is active and has not been
+ * ejected. Connections are ejected for some time after a number of
+ * consecutive failed writes. Lost connections are reconnected according to
+ * the {@link ReconnectPolicy} of the group.
+ */
+public class TCPClientGroup {
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+    private final NioEventLoopGroup group;
+    private final boolean ownsGroup;
+    private final boolean useTls;
+    private final Balancing balancing;
+    private Consumer<ChannelPipeline> pipelineCodec;
+    private TCPListener listener;
+    private ReconnectPolicy reconnectPolicy = new ReconnectPolicy(100, 10000,
+            TimeUnit.MILLISECONDS);
+    private int maxFailures = 3;
+    private long ejectionTimeNs = TimeUnit.SECONDS.toNanos(10);
+    private volatile boolean started = false;
+
+    public TCPClientGroup(NioEventLoopGroup group, boolean useTls, Balancing balancing) {
+        this.group = group != null ? group : new NioEventLoopGroup();
+        this.ownsGroup = true;
+        this.useTls = useTls;
+        this.balancing = balancing;
+    }
+
+    /**
+     * Creates a group whose connections use the worker group of the given
+     * resources. The worker group is not shut down by {@link #release()}.
+     *
+     * @param useTls    whether connections are encrypted
+     * @param balancing the balancing strategy
+     * @param resources the event loops to use
+     */
+    public TCPClientGroup(boolean useTls, Balancing balancing, EventLoopResources resources) {
+        this.group = resources.getWorkerGroup();
+        this.ownsGroup = false;
+        this.useTls = useTls;
+        this.balancing = balancing;
+    }
+
+    public TCPClientGroup(boolean useTls) {
+        this(null, useTls, Balancing.POWER_OF_TWO_CHOICES);
+    }
+
+    /**
+     * Adds connections to the given endpoint. If the group has already been
+     * connected, the new connections are opened immediately.
+     *
+     * @param host        the host
+     * @param port        the port
+     * @param connections number of connections to open to this endpoint
+     */
+    public void addEndpoint(String host, int port, int connections) {
+        for (int i = 0; i < connections; i++) {
+            Connection connection = new Connection(host, port);
+            this.connections.add(connection);
+
+            if (started) {
+                connection.client.connectAsync(host, port);
+            }
+        }
+    }
+
+    public void addEndpoint(String host, int port) {
+        addEndpoint(host, port, 1);
+    }
+
+    /**
+     * Opens all connections without blocking. Failed connections are retried
+     * in the background.
+     */
+    public void connect() {
+        started = true;
+
+        for (Connection connection : connections) {
+            connection.client.connectAsync(connection.host, connection.port);
+        }
+    }
+
+    /**
+     * Writes and flushes the message to one of the healthy connections
+     *
+     * @param msg the message
+     * @return false if no healthy connection is available and the message has
+     * been dropped
+     */
+    public boolean send(Object msg) {
+        Connection connection = choose();
+
+        if (connection == null) {
+            ReferenceCountUtil.release(msg);
+            return false;
+        }
+
+        connection.outstanding.incrementAndGet();
+        connection.channel().writeAndFlush(msg).addListener((ChannelFutureListener) f -> {
+            connection.outstanding.decrementAndGet();
+
+            if (f.isSuccess()) {
+                connection.failures.set(0);
+            } else if (connection.failures.incrementAndGet() >= maxFailures) {
+                connection.ejectedUntil = System.nanoTime() + ejectionTimeNs;
+                connection.failures.set(0);
+            }
+        });
+
+        return true;
+    }
+
+    /**
+     * Returns the channel of a healthy connection chosen by the balancing
+     * strategy of the group
+     *
+     * @return the channel or null if no connection is healthy
+     */
+    public Channel next() {
+        Connection connection = choose();
+        return connection != null ? connection.channel() : null;
+    }
+
+    private Connection choose() {
+        Object[] snapshot = connections.toArray();
+        int size = snapshot.length;
+
+        if (size == 0) {
+            return null;
+        }
+
+        long now = System.nanoTime();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        if (balancing == Balancing.POWER_OF_TWO_CHOICES && size > 1) {
+            Connection a = (Connection) snapshot[random.nextInt(size)];
+            Connection b = (Connection) snapshot[random.nextInt(size)];
+            boolean aHealthy = a.isHealthy(now);
+            boolean bHealthy = b.isHealthy(now);
+
+            if (aHealthy && bHealthy) {
+                return a.outstanding.get() <= b.outstanding.get() ? a : b;
+            } else if (aHealthy) {
+                return a;
+            } else if (bHealthy) {
+                return b;
+            }
+
+            // both samples are unhealthy, fall back to a full scan
+        }
+
+        // least outstanding, starting at a random offset to spread ties
+        int offset = random.nextInt(size);
+        Connection best = null;
+        int bestOutstanding = Integer.MAX_VALUE;
+
+        for (int i = 0; i < size; i++) {
+            Connection connection = (Connection) snapshot[(offset + i) % size];
+            int outstanding = connection.outstanding.get();
+
+            if (outstanding < bestOutstanding && connection.isHealthy(now)) {
+                best = connection;
+                bestOutstanding = outstanding;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * @return the number of connections messages can currently be sent to
+     */
+    public int getHealthyConnections() {
+        long now = System.nanoTime();
+        int healthy = 0;
+
+        for (Connection connection : connections) {
+            if (connection.isHealthy(now)) {
+                healthy++;
+            }
+        }
+
+        return healthy;
+    }
+
+    public int getConnections() {
+        return connections.size();
+    }
+
+    /**
+     * Closes all connections and shuts down the event loop group if it is
+     * not shared
+     */
+    public void release() {
+        for (Connection connection : connections) {
+            connection.client.close();
+        }
+
+        if (ownsGroup) {
+            group.shutdownGracefully().awaitUninterruptibly();
+        }
+    }
+
+    /**
+     * Adds a custom codec to all connections. Like with
+     * {@link TCPClient#addCustomCodec(Consumer)} codecs are added in the
+     * order they were registered. This has to be called before endpoints are
+     * added.
+     *
+     * @param pipelineCodec the codec
+     */
+    public void addCustomCodec(Consumer<ChannelPipeline> pipelineCodec) {
+        this.pipelineCodec = this.pipelineCodec != null
+                ? this.pipelineCodec.andThen(pipelineCodec) : pipelineCodec;
+    }
+
+    /**
+     * Sets the listener of all connections. This has to be called before
+     * endpoints are added.
+     *
+     * @param listener the listener
+     */
+    public void setListener(TCPListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sets the policy used to reconnect lost connections. This has to be
+     * called before endpoints are added.
+     *
+     * @param reconnectPolicy the policy
+     */
+    public void setReconnectPolicy(ReconnectPolicy reconnectPolicy) {
+        this.reconnectPolicy = reconnectPolicy;
+    }
+
+    /**
+     * Sets after how many consecutive failed writes a connection is ejected
+     * and for how long
+     *
+     * @param maxFailures  number of consecutive failures
+     * @param ejectionTime time the connection is ejected
+     * @param unit         unit of the ejection time
+     */
+    public void setEjection(int maxFailures, long ejectionTime, TimeUnit unit) {
+        this.maxFailures = maxFailures;
+        this.ejectionTimeNs = unit.toNanos(ejectionTime);
+    }
+
+    public EventLoopGroup getEventLoopGroup() {
+        return group;
+    }
+
+    public enum Balancing {
+        /**
+         * Sends to the connection with the fewest writes in flight
+         */
+        LEAST_OUTSTANDING,
+
+        /**
+         * Samples two random connections and sends to the one with fewer
+         * writes in flight
+         */
+        POWER_OF_TWO_CHOICES
+    }
+
+    private class Connection {
+        private final String host;
+        private final int port;
+        private final TCPClient client;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private volatile long ejectedUntil;
+
+        private Connection(String host, int port) {
+            this.host = host;
+            this.port = port;
+            this.ejectedUntil = System.nanoTime();
+
+            this.client = new TCPClient(group, useTls);
+            this.client.addCustomCodec(pipelineCodec);
+            this.client.setListener(listener);
+            this.client.enableAutoReconnect(reconnectPolicy, 0);
+            this.client.initBootstrap();
+        }
+
+        private Channel channel() {
+            return client.getChannel();
+        }
+
+        private boolean isHealthy(long now) {
+            Channel channel = client.getChannel();
+            return channel != null && channel.isActive() && now - ejectedUntil >= 0;
+        }
+    }
+}
@@ -27,4 +27,14 @@ public interface TCPListener {
     void onMessageReceived(ChannelHandlerContext ctx, Object message);
 
     void onExceptionCaught(ChannelHandlerContext ctx, Throwable cause);
+
+    /**
+     * Gets called if heartbeats are enabled and nothing has been received
+     * from the other side within the read timeout. The connection is closed
+     * afterwards.
+     *
+     * @param ctx the context of the idle connection
+     */
+    default void onClientIdle(ChannelHandlerContext ctx) {
+    }
 }
@@ -16,42 +16,116 @@
 
 package de.ocarthon.core.network.tcp;
 
+import de.ocarthon.core.network.EventLoopResources;
+import de.ocarthon.core.network.capture.CaptureHandler;
+import de.ocarthon.core.network.capture.CaptureWriter;
+import de.ocarthon.core.network.metrics.TrafficMetricsHandler;
+import de.ocarthon.core.network.metrics.TrafficSnapshot;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerAdapter;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOutboundBuffer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.codec.LengthFieldPrepender;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.util.SelfSignedCertificate;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.DefaultPromise;
+import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.Promise;
 
 import javax.net.ssl.SSLException;
+import java.io.File;
 import java.security.cert.CertificateException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 public class TCPServer {
+    private static final long DRAIN_POLL_INTERVAL_MS = 10;
+
     private final TCPServerHandler handler = new TCPServerHandler();
+    private final TopicRouter topicRouter = new TopicRouter();
+    private final TCPSessionRegistry sessionRegistry = new TCPSessionRegistry();
     private final boolean useTls;
     private final int lengthBytes = 2;
-    private EventLoopGroup bossGroup = new NioEventLoopGroup();
-    private EventLoopGroup workerGroup = new NioEventLoopGroup();
+    private final EventLoopGroup bossGroup;
+    private final EventLoopGroup workerGroup;
+    private final boolean ownsEventLoops;
+    private final EventLoopResources resources;
+    private final List<Channel> reusePortChannels = new ArrayList<>();
     private ServerBootstrap bootstrap;
+    private ChannelInitializer<Channel> channelInitializer;
+    private EventLoopGroup domainBossGroup;
+    private EventLoopGroup epollWorkerGroup;
+    private EventLoopGroup reusePortBossGroup;
+    private Channel domainChannel;
+    private String domainSocketPath;
     private Channel serverChannel;
     private Consumer<ChannelPipeline> pipelineCodec;
     private SslContext serverSslContext;
     private LengthFieldPrepender lengthPrepender = new LengthFieldPrepender(lengthBytes);
+    private long readTimeoutMs = 0;
+    private long pingIntervalMs = 0;
+    private int compressionThreshold = -1;
+    private byte[] compressionDictionary;
+    private boolean fileTransfer;
+    private CaptureHandler captureHandler;
+    private TCPListener listener;
+    private Executor listenerExecutor;
+    private int maxQueueDepth;
+    private TrafficMetricsHandler metricsHandler;
+    private AdmissionHandler admissionHandler;
+    private ScheduledFuture<?> metricsReporter;
 
     public TCPServer(boolean useTls) {
+        this(useTls, null);
+    }
+
+    /**
+     * Creates a server that uses the event loops of the given resources. The
+     * event loops are not shut down by {@link #shutdown()}.
+     *
+     * @param useTls    whether connections are encrypted
+     * @param resources the event loops to use, null to create new ones
+     */
+    public TCPServer(boolean useTls, EventLoopResources resources) {
         this.useTls = useTls;
+        this.resources = resources;
+
+        if (resources != null) {
+            this.bossGroup = resources.getBossGroup();
+            this.workerGroup = resources.getWorkerGroup();
+            this.ownsEventLoops = false;
+        } else {
+            this.bossGroup = new NioEventLoopGroup();
+            this.workerGroup = new NioEventLoopGroup();
+            this.ownsEventLoops = true;
+        }
     }
 
     public void initBootstrap() throws CertificateException, SSLException {
@@ -59,29 +133,57 @@ public class TCPServer {
         this.serverSslContext = SslContext.newServerContext(cert.certificate(),
                 cert.privateKey());
 
-        this.bootstrap = new ServerBootstrap();
-        this.bootstrap.group(bossGroup, workerGroup)
-                .channel(NioServerSocketChannel.class)
-                .childHandler(new ChannelInitializer<Channel>() {
-                    @Override
-                    protected void initChannel(Channel ch) throws Exception {
-                        ChannelPipeline p = ch.pipeline();
+        this.channelInitializer = new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) throws Exception {
+                ChannelPipeline p = ch.pipeline();
+
+                if (useTls) {
+                    p.addLast(serverSslContext.newHandler(ch.alloc()));
+                }
+
+                p.addLast(lengthPrepender);
+                p.addLast(new LengthFieldBasedFrameDecoder(65535, 0, lengthBytes,
+                        0, lengthBytes));
+
+                if (metricsHandler != null) {
+                    p.addLast(metricsHandler);
+                }
+
+                if (admissionHandler != null) {
+                    p.addLast(admissionHandler);
+                }
+
+                if (captureHandler != null) {
+                    p.addLast(captureHandler);
+                }
+
+                if (fileTransfer) {
+                    p.addLast(new FileTransferHandler());
+                }
+
+                if (readTimeoutMs > 0 || pingIntervalMs > 0) {
+                    HeartbeatHandler.install(p, readTimeoutMs, pingIntervalMs,
+                            TimeUnit.MILLISECONDS);
+                }
 
-                        if (useTls) {
-                            p.addLast(serverSslContext.newHandler(ch.alloc()));
-                        }
+                if (compressionThreshold >= 0) {
+                    p.addLast(new FrameCompressionCodec(compressionThreshold,
+                            compressionDictionary));
+                }
 
-                        p.addLast(lengthPrepender);
-                        p.addLast(new LengthFieldBasedFrameDecoder(65535, 0, lengthBytes,
-                                0, lengthBytes));
+                if (pipelineCodec != null) {
+                    pipelineCodec.accept(p);
+                }
 
-                        if (pipelineCodec != null) {
-                            pipelineCodec.accept(p);
-                        }
+                p.addLast(handler);
+            }
+        };
 
-                        p.addLast(handler);
-                    }
-                });
+        this.bootstrap = new ServerBootstrap();
+        this.bootstrap.group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(channelInitializer);
     }
 
     public boolean bind(int port) throws InterruptedException {
@@ -95,27 +197,424 @@ public class TCPServer {
         return cf.isSuccess();
     }
 
+    /**
+     * Listens on a unix domain socket in addition to or instead of a tcp
+     * port. Connections use the same pipeline and listener as tcp
+     * connections. The socket file must not exist and is deleted by
+     * {@link #shutdown()}. This needs the native epoll transport, which is
+     * only available on linux.
+     *
+     * @param path path of the socket file
+     * @return whether the socket has been bound
+     * @throws InterruptedException if the thread is interrupted while binding
+     */
+    public boolean bindDomainSocket(String path) throws InterruptedException {
+        if (channelInitializer == null) {
+            throw new IllegalStateException("TCPServer#initBootstrap() must be called first!");
+        } else if (!Epoll.isAvailable()) {
+            throw new IllegalStateException("domain sockets need the native epoll transport",
+                    Epoll.unavailabilityCause());
+        }
+
+        if (domainBossGroup == null) {
+            domainBossGroup = resources != null ? resources.getEpollBossGroup()
+                    : new EpollEventLoopGroup(1);
+        }
+
+        ServerBootstrap domainBootstrap = new ServerBootstrap();
+        domainBootstrap.group(domainBossGroup, epollWorkerGroup())
+                .channel(EpollServerDomainSocketChannel.class)
+                .childHandler(channelInitializer);
+
+        ChannelFuture cf = domainBootstrap.bind(new DomainSocketAddress(path));
+        cf.sync();
+        domainChannel = cf.channel();
+        domainSocketPath = path;
+        return cf.isSuccess();
+    }
+
+    /**
+     * Binds several listening sockets to the same port with SO_REUSEPORT, so
+     * that the kernel spreads incoming connections across them and
+     * connections are accepted by several threads in parallel. This helps
+     * if many clients connect at once, e.g. after a failover. Connections
+     * are handled by a separate epoll worker group and use the same
+     * pipeline and listener as other connections. This needs the native
+     * epoll transport and linux 3.9 or newer.
+     *
+     * @param host      the host to bind to
+     * @param port      the port to bind to
+     * @param acceptors number of listening sockets, each with its own thread
+     * @return whether all sockets have been bound
+     * @throws InterruptedException if the thread is interrupted while binding
+     */
+    public boolean bindReusePort(String host, int port, int acceptors) throws InterruptedException {
+        if (channelInitializer == null) {
+            throw new IllegalStateException("TCPServer#initBootstrap() must be called first!");
+        } else if (!Epoll.isAvailable()) {
+            throw new IllegalStateException("SO_REUSEPORT needs the native epoll transport",
+                    Epoll.unavailabilityCause());
+        } else if (acceptors < 1) {
+            throw new IllegalArgumentException("at least one acceptor is needed");
+        }
+
+        if (reusePortBossGroup == null) {
+            reusePortBossGroup = new EpollEventLoopGroup(acceptors);
+        }
+
+        ServerBootstrap reusePortBootstrap = new ServerBootstrap();
+        reusePortBootstrap.group(reusePortBossGroup, epollWorkerGroup())
+                .channel(EpollServerSocketChannel.class)
+                .option(EpollChannelOption.SO_REUSEPORT, true)
+                .childHandler(channelInitializer);
+
+        // every bind registers the channel with the next event loop of the group
+        boolean success = true;
+        for (int i = 0; i < acceptors; i++) {
+            ChannelFuture cf = reusePortBootstrap.bind(host, port);
+            cf.sync();
+            reusePortChannels.add(cf.channel());
+            success &= cf.isSuccess();
+        }
+
+        return success;
+    }
+
+    /**
+     * Epoll connections are handled by the epoll worker group of the
+     * resources or by an own group sized like the nio worker group
+     */
+    private EventLoopGroup epollWorkerGroup() {
+        if (epollWorkerGroup == null) {
+            epollWorkerGroup = resources != null ? resources.getEpollWorkerGroup()
+                    : new EpollEventLoopGroup();
+        }
+
+        return epollWorkerGroup;
+    }
+
+    /**
+     * Stops accepting connections and closes the open connections without
+     * dropping messages or making all clients reconnect at the same time.
+     * The go-away message is written to every client, then the closes are
+     * spread evenly over the timeout. A connection is closed in its slot as
+     * soon as all pending writes have been flushed, but at the latest when
+     * the timeout has passed. Event loops keep running, call
+     * {@link #shutdown()} afterwards to release them.
+     *
+     * @param goAway  message telling clients to reconnect elsewhere, it
+     *                passes through the pipeline like any other message and
+     *                is released by this method. May be null.
+     * @param timeout time until all connections are closed
+     * @param unit    unit of the timeout
+     * @return future that completes once all connections are closed
+     */
+    public Future<Void> drain(Object goAway, long timeout, TimeUnit unit) {
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+
+        if (domainChannel != null) {
+            domainChannel.close();
+        }
+
+        for (Channel channel : reusePortChannels) {
+            channel.close();
+        }
+
+        List<Channel> clients = new ArrayList<>(getClients());
+        Promise<Void> promise = new DefaultPromise<>(GlobalEventExecutor.INSTANCE);
+        AtomicInteger remaining = new AtomicInteger(clients.size());
+        long timeoutNanos = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + timeoutNanos;
+
+        if (clients.isEmpty()) {
+            promise.setSuccess(null);
+        }
+
+        for (int i = 0; i < clients.size(); i++) {
+            Channel channel = clients.get(i);
+            channel.closeFuture().addListener(f -> {
+                if (remaining.decrementAndGet() == 0) {
+                    promise.trySuccess(null);
+                }
+            });
+
+            if (goAway != null) {
+                channel.writeAndFlush(goAway instanceof ByteBuf
+                        ? ((ByteBuf) goAway).duplicate().retain()
+                        : ReferenceCountUtil.retain(goAway));
+            }
+
+            long slot = timeoutNanos * i / clients.size();
+            channel.eventLoop().schedule(() -> closeWhenFlushed(channel, deadline),
+                    slot, TimeUnit.NANOSECONDS);
+        }
+
+        ReferenceCountUtil.release(goAway);
+        return promise;
+    }
+
+    private static void closeWhenFlushed(Channel channel, long deadline) {
+        ChannelOutboundBuffer buffer = channel.unsafe().outboundBuffer();
+
+        if (buffer == null || buffer.totalPendingWriteBytes() == 0
+                || System.nanoTime() - deadline >= 0) {
+            channel.close();
+        } else {
+            channel.eventLoop().schedule(() -> closeWhenFlushed(channel, deadline),
+                    DRAIN_POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
     public void shutdown() {
+        if (metricsReporter != null) {
+            metricsReporter.cancel(false);
+        }
+
         getClients().close().awaitUninterruptibly();
-        serverChannel.close().awaitUninterruptibly();
-        bossGroup.shutdownGracefully().awaitUninterruptibly();
-        workerGroup.shutdownGracefully().awaitUninterruptibly();
+
+        if (serverChannel != null) {
+            serverChannel.close().awaitUninterruptibly();
+        }
+
+        if (domainChannel != null) {
+            domainChannel.close().awaitUninterruptibly();
+            new File(domainSocketPath).delete();
+        }
+
+        for (Channel channel : reusePortChannels) {
+            channel.close().awaitUninterruptibly();
+        }
+        reusePortChannels.clear();
+
+        if (reusePortBossGroup != null) {
+            reusePortBossGroup.shutdownGracefully().awaitUninterruptibly();
+        }
+
+        if (ownsEventLoops && domainBossGroup != null) {
+            domainBossGroup.shutdownGracefully().awaitUninterruptibly();
+        }
+
+        if (ownsEventLoops && epollWorkerGroup != null) {
+            epollWorkerGroup.shutdownGracefully().awaitUninterruptibly();
+        }
+
+        if (ownsEventLoops) {
+            bossGroup.shutdownGracefully().awaitUninterruptibly();
+            workerGroup.shutdownGracefully().awaitUninterruptibly();
+        }
+    }
+
+    /**
+     * Limits the connections opened after this call. Connections above the
+     * limits are closed, clients sending too fast are throttled by pausing
+     * reads from their connection. A limit of 0 disables it.
+     *
+     * @param maxConnections           maximum number of open connections
+     * @param maxConnectionsPerAddress maximum number of open connections from
+     *                                 one ip address
+     * @param messagesPerSecond        messages per second of each connection
+     * @param bytesPerSecond           bytes per second of each connection
+     * @return the admission handler
+     * @see AdmissionHandler
+     */
+    public AdmissionHandler setAdmissionControl(int maxConnections, int maxConnectionsPerAddress,
+                                                long messagesPerSecond, long bytesPerSecond) {
+        admissionHandler = new AdmissionHandler(maxConnections, maxConnectionsPerAddress,
+                messagesPerSecond, bytesPerSecond);
+        return admissionHandler;
+    }
+
+    /**
+     * @return the admission handler or null if admission control is disabled
+     */
+    public AdmissionHandler getAdmissionControl() {
+        return admissionHandler;
+    }
+
+    /**
+     * Enables the collection of traffic metrics for all clients connecting
+     * after this call.
+     *
+     * @return the metrics handler
+     */
+    public TrafficMetricsHandler enableMetrics() {
+        if (metricsHandler == null) {
+            metricsHandler = new TrafficMetricsHandler(lengthBytes);
+        }
+
+        return metricsHandler;
+    }
+
+    /**
+     * @return the metrics handler or null if metrics are not enabled
+     */
+    public TrafficMetricsHandler getMetrics() {
+        return metricsHandler;
+    }
+
+    /**
+     * Enables metrics and periodically passes a snapshot of the traffic of
+     * all clients to the given reporter. The reporter runs on the worker
+     * group and is stopped by {@link #shutdown()}.
+     *
+     * @param period   the time between two reports
+     * @param unit     unit of the period
+     * @param reporter receives the snapshots
+     */
+    public void startMetricsReporter(long period, TimeUnit unit,
+                                     Consumer<TrafficSnapshot> reporter) {
+        if (metricsReporter != null) {
+            metricsReporter.cancel(false);
+        }
+
+        metricsReporter = enableMetrics().startReporter(workerGroup, period, unit, reporter);
+    }
+
+    public EventLoopGroup getBossGroup() {
+        return bossGroup;
+    }
+
+    public EventLoopGroup getWorkerGroup() {
+        return workerGroup;
     }
 
     public Channel getServerChannel() {
         return this.serverChannel;
     }
 
+    /**
+     * @return the listening sockets bound by
+     * {@link #bindReusePort(String, int, int)}
+     */
+    public List<Channel> getReusePortChannels() {
+        return reusePortChannels;
+    }
+
+    /**
+     * Enables heartbeats for all connections opened after this call. An empty
+     * frame is sent if nothing has been written for the ping interval and the
+     * connection is closed if nothing has been received within the read
+     * timeout.
+     *
+     * @param readTimeout  the read timeout, 0 to disable
+     * @param pingInterval the ping interval, 0 to disable
+     * @param unit         unit of both times
+     * @see HeartbeatHandler
+     */
+    public void setHeartbeat(long readTimeout, long pingInterval, TimeUnit unit) {
+        this.readTimeoutMs = unit.toMillis(readTimeout);
+        this.pingIntervalMs = unit.toMillis(pingInterval);
+    }
+
+    /**
+     * Compresses frames of all connections opened after this call. Both sides
+     * have to enable compression with the same dictionary. Compressed frames
+     * carry an additional flag byte.
+     *
+     * @param threshold  frames with fewer bytes are sent uncompressed
+     * @param dictionary preset dictionary with byte sequences common in the
+     *                   messages, may be null
+     * @see FrameCompressionCodec
+     */
+    public void enableCompression(int threshold, byte[] dictionary) {
+        this.compressionThreshold = threshold;
+        this.compressionDictionary = dictionary;
+    }
+
+    /**
+     * Records the frames of all connections opened after this call. Capturing
+     * stops when the writer is closed.
+     *
+     * @param writer the capture to append to
+     * @return the capture handler
+     * @see CaptureWriter
+     */
+    public CaptureHandler enableCapture(CaptureWriter writer) {
+        captureHandler = new CaptureHandler(writer);
+        return captureHandler;
+    }
+
+    /**
+     * Allows sending files over connections opened after this call. Both
+     * sides have to enable file transfers, every frame then carries an
+     * additional type byte. Received files are passed to the listener as
+     * {@link FileChunk}s.
+     *
+     * @see FileTransferHandler
+     */
+    public void enableFileTransfer() {
+        this.fileTransfer = true;
+    }
+
+    /**
+     * Sends a file to a client. On plaintext connections the file is not
+     * copied into memory but transferred by the kernel.
+     *
+     * @param channel    the client
+     * @param transferId id passed to the receiver with every chunk
+     * @param file       the file
+     * @param offset     position to start at, to resume a transfer
+     * @return future that completes once the file has been written
+     * @see FileTransferHandler#sendFile(Channel, int, File, long)
+     */
+    public ChannelFuture sendFile(Channel channel, int transferId, File file, long offset) {
+        return FileTransferHandler.sendFile(channel, transferId, file, offset);
+    }
+
+    /**
+     * Adds handlers between the framing and the listener. Codecs are added
+     * to the pipeline in the order they were registered, the first one is
+     * closest to the network.
+     *
+     * @param pipelineCodec adds the handlers to the pipeline
+     */
     public void addCustomCodec(Consumer<ChannelPipeline> pipelineCodec) {
-        this.pipelineCodec = pipelineCodec;
+        this.pipelineCodec = this.pipelineCodec != null
+                ? this.pipelineCodec.andThen(pipelineCodec) : pipelineCodec;
     }
 
     public ChannelGroup getClients() {
         return handler.getChannels();
     }
 
+    /**
+     * @return the router publishing messages to the clients subscribed to a
+     * topic
+     */
+    public TopicRouter getTopicRouter() {
+        return topicRouter;
+    }
+
+    /**
+     * @return the registry to look up clients by a numeric id
+     */
+    public TCPSessionRegistry getSessionRegistry() {
+        return sessionRegistry;
+    }
+
     public void setListener(TCPListener listener) {
-        this.handler.setListener(listener);
+        this.listener = listener;
+        this.handler.setListener(listenerExecutor != null && listener != null
+                ? new OrderedTCPListener(listener, listenerExecutor, maxQueueDepth) : listener);
+    }
+
+    /**
+     * Runs all listener callbacks on the given executor instead of the I/O
+     * thread, so that the listener may block. Callbacks of one connection
+     * keep their order.
+     *
+     * @param executor      the executor, null to call the listener on the
+     *                      I/O thread
+     * @param maxQueueDepth number of waiting callbacks of a connection after
+     *                      which reading from it is paused
+     * @see OrderedTCPListener
+     */
+    public void setListenerExecutor(Executor executor, int maxQueueDepth) {
+        this.listenerExecutor = executor;
+        this.maxQueueDepth = maxQueueDepth;
+        setListener(listener);
     }
 
     public TCPServerHandler getServerHandler() {
@@ -123,6 +622,7 @@ public class TCPServer {
     }
 
 
+    @ChannelHandler.Sharable
     private class TCPServerHandler extends ChannelHandlerAdapter {
         private ChannelGroup channelGroup = new DefaultChannelGroup(
                 GlobalEventExecutor.INSTANCE);
@@ -150,6 +650,16 @@ public class TCPServer {
             if (listener != null) listener.onExceptionCaught(ctx, cause);
         }
 
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent
+                    && ((IdleStateEvent) evt).state() == IdleState.READER_IDLE) {
+                if (listener != null) listener.onClientIdle(ctx);
+            } else {
+                ctx.fireUserEventTriggered(evt);
+            }
+        }
+
         public void setListener(TCPListener listener) {
             this.listener = listener;
         }
@@ -0,0 +1,71 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.tcp;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+
+/**
+ * A connection registered under a numeric id in a
+ * {@link TCPSessionRegistry}. The session can carry an application object,
+ * e.g. the player of the connection.
+ */
+public class TCPSession {
+    private final long id;
+    private final Channel channel;
+    private volatile Object attachment;
+
+    TCPSession(long id, Channel channel) {
+        this.id = id;
+        this.channel = channel;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public Channel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Writes and flushes a message to the connection
+     *
+     * @param message the message
+     * @return the write future
+     */
+    public ChannelFuture send(Object message) {
+        return channel.writeAndFlush(message);
+    }
+
+    /**
+     * @param attachment the application object of this session
+     */
+    public void attach(Object attachment) {
+        this.attachment = attachment;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T getAttachment() {
+        return (T) attachment;
+    }
+
+    @Override
+    public String toString() {
+        return "TCPSession(" + id + ", " + channel + ")";
+    }
+}
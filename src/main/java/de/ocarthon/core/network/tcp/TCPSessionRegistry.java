@@ -0,0 +1,202 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.tcp;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.util.AttributeKey;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Maps numeric ids to connections. Sessions are stored in an open addressing
+ * hash table with linear probing that is keyed by the primitive id, so
+ * lookups neither box the id nor lock. Registering and removing sessions is
+ * synchronized. Sessions are removed when their channel is closed.
+ */
+public class TCPSessionRegistry {
+    private static final AttributeKey<TCPSession> SESSION = AttributeKey.valueOf("TCPSession");
+    private static final TCPSession REMOVED = new TCPSession(0, null);
+    private static final int INITIAL_CAPACITY = 64;
+
+    private volatile AtomicReferenceArray<TCPSession> table =
+            new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    private int size;
+    private int used;
+
+    /**
+     * Registers a channel under an id
+     *
+     * @param id      the id
+     * @param channel the channel, it may only be registered once
+     * @return the session
+     * @throws IllegalStateException if the id or the channel is already
+     *                               registered
+     */
+    public TCPSession register(long id, Channel channel) {
+        TCPSession session = new TCPSession(id, channel);
+
+        synchronized (this) {
+            if (get(id) != null) {
+                throw new IllegalStateException("session " + id + " is already registered");
+            } else if (!channel.attr(SESSION).compareAndSet(null, session)) {
+                throw new IllegalStateException(channel + " is already registered");
+            }
+
+            if ((used + 1) * 2 > table.length()) {
+                rehash(size + 1);
+            }
+
+            AtomicReferenceArray<TCPSession> t = table;
+            int mask = t.length() - 1;
+            int index = hash(id) & mask;
+            TCPSession current;
+
+            while ((current = t.get(index)) != null && current != REMOVED) {
+                index = (index + 1) & mask;
+            }
+
+            if (current == null) {
+                used++;
+            }
+
+            t.set(index, session);
+            size++;
+        }
+
+        channel.closeFuture().addListener((ChannelFutureListener) f -> remove(session));
+        return session;
+    }
+
+    /**
+     * @param id the id
+     * @return the session with the id or null
+     */
+    public TCPSession get(long id) {
+        AtomicReferenceArray<TCPSession> t = table;
+        int mask = t.length() - 1;
+        int index = hash(id) & mask;
+        TCPSession session;
+
+        while ((session = t.get(index)) != null) {
+            if (session.getId() == id && session != REMOVED) {
+                return session;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        return null;
+    }
+
+    /**
+     * @param channel the channel
+     * @return the session of the channel or null if it is not registered
+     */
+    public TCPSession get(Channel channel) {
+        return channel.attr(SESSION).get();
+    }
+
+    /**
+     * Removes a session without closing its channel
+     *
+     * @param id the id
+     * @return the removed session or null
+     */
+    public TCPSession remove(long id) {
+        TCPSession session = get(id);
+        return session != null && remove(session) ? session : null;
+    }
+
+    private synchronized boolean remove(TCPSession session) {
+        AtomicReferenceArray<TCPSession> t = table;
+        int mask = t.length() - 1;
+        int index = hash(session.getId()) & mask;
+        TCPSession current;
+
+        while ((current = t.get(index)) != null) {
+            if (current == session) {
+                t.set(index, REMOVED);
+                size--;
+                session.getChannel().attr(SESSION).compareAndSet(session, null);
+                return true;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        return false;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return a snapshot of all sessions
+     */
+    public List<TCPSession> getSessions() {
+        AtomicReferenceArray<TCPSession> t = table;
+        List<TCPSession> sessions = new ArrayList<>();
+
+        for (int i = 0; i < t.length(); i++) {
+            TCPSession session = t.get(i);
+
+            if (session != null && session != REMOVED) {
+                sessions.add(session);
+            }
+        }
+
+        return sessions;
+    }
+
+    private void rehash(int minSize) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < minSize * 4) {
+            capacity <<= 1;
+        }
+
+        AtomicReferenceArray<TCPSession> old = table;
+        AtomicReferenceArray<TCPSession> t = new AtomicReferenceArray<>(capacity);
+        int mask = capacity - 1;
+
+        for (int i = 0; i < old.length(); i++) {
+            TCPSession session = old.get(i);
+
+            if (session != null && session != REMOVED) {
+                int index = hash(session.getId()) & mask;
+                while (t.get(index) != null) {
+                    index = (index + 1) & mask;
+                }
+                t.set(index, session);
+            }
+        }
+
+        used = size;
+        table = t;
+    }
+
+    private static int hash(long id) {
+        // murmur3 finalizer, spreads sequential ids over the table
+        id ^= id >>> 33;
+        id *= 0xff51afd7ed558ccdL;
+        id ^= id >>> 33;
+        return (int) id;
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.tcp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Routes published messages to the channels subscribed to their topic.
+ * Topics consist of segments separated by dots. A subscription may contain
+ * the wildcards {@code *}, which matches exactly one segment, and {@code #}
+ * as last segment, which matches any number of remaining segments
+ * ({@code game.*.chat} matches {@code game.lobby.chat},
+ * {@code game.#} matches {@code game} and {@code game.lobby.chat}).<p>
+ * Subscribers are kept in copy-on-write sets per topic, so publishing does
+ * not lock and only touches the subscribers of the topic and of matching
+ * wildcard subscriptions. Channels are unsubscribed from all topics when
+ * they are closed. The topics of each channel are kept by the router, so
+ * several routers can be used for the same channels.
+ */
+public class TopicRouter {
+    private final Map<Channel, Set<String>> channelTopics = new ConcurrentHashMap<>();
+    private final Map<String, Set<Channel>> topics = new ConcurrentHashMap<>();
+    private final Map<String, Subscription> wildcards = new ConcurrentHashMap<>();
+
+    /**
+     * Subscribes a channel to a topic
+     *
+     * @param channel the channel
+     * @param topic   the topic, may contain wildcards
+     * @return false if the channel already is subscribed to the topic
+     */
+    public boolean subscribe(Channel channel, String topic) {
+        if (isWildcard(topic)) {
+            Subscription.validate(topic);
+        }
+
+        Set<String> subscriptions = channelTopics.get(channel);
+
+        if (subscriptions == null) {
+            Set<String> created = ConcurrentHashMap.newKeySet();
+            subscriptions = channelTopics.putIfAbsent(channel, created);
+
+            if (subscriptions == null) {
+                subscriptions = created;
+                channel.closeFuture().addListener((ChannelFutureListener) f -> {
+                    unsubscribeAll(f.channel());
+                    channelTopics.remove(f.channel());
+                });
+            }
+        }
+
+        if (!subscriptions.add(topic)) {
+            return false;
+        }
+
+        if (isWildcard(topic)) {
+            wildcards.compute(topic, (t, s) -> {
+                Subscription subscription = s != null ? s : new Subscription(t);
+                subscription.channels.add(channel);
+                return subscription;
+            });
+        } else {
+            topics.compute(topic, (t, channels) -> {
+                Set<Channel> set = channels != null ? channels : new CopyOnWriteArraySet<>();
+                set.add(channel);
+                return set;
+            });
+        }
+
+        if (!channel.isOpen() && subscriptions.remove(topic)) {
+            // the close listener may have run before the topic was added
+            removeSubscriber(channel, topic);
+        }
+
+        return true;
+    }
+
+    /**
+     * @param channel the channel
+     * @param topic   the topic exactly as it has been subscribed
+     * @return false if the channel was not subscribed to the topic
+     */
+    public boolean unsubscribe(Channel channel, String topic) {
+        Set<String> subscriptions = channelTopics.get(channel);
+
+        if (subscriptions == null || !subscriptions.remove(topic)) {
+            return false;
+        }
+
+        removeSubscriber(channel, topic);
+        return true;
+    }
+
+    private void removeSubscriber(Channel channel, String topic) {
+        if (isWildcard(topic)) {
+            wildcards.computeIfPresent(topic, (t, subscription) -> {
+                subscription.channels.remove(channel);
+                return subscription.channels.isEmpty() ? null : subscription;
+            });
+        } else {
+            topics.computeIfPresent(topic, (t, channels) -> {
+                channels.remove(channel);
+                return channels.isEmpty() ? null : channels;
+            });
+        }
+    }
+
+    /**
+     * Removes all subscriptions of a channel
+     *
+     * @param channel the channel
+     */
+    public void unsubscribeAll(Channel channel) {
+        Set<String> subscriptions = channelTopics.get(channel);
+
+        if (subscriptions != null) {
+            for (String topic : subscriptions) {
+                unsubscribe(channel, topic);
+            }
+        }
+    }
+
+    /**
+     * Writes an encoded message to every channel subscribed to the topic.
+     * The buffer is shared by all channels, so the message is encoded only
+     * once. It passes through the rest of the pipeline (compression, length
+     * field) like every other buffer. The buffer is released by this method.
+     *
+     * @param topic   the topic, must not contain wildcards
+     * @param message the encoded message
+     * @return the number of channels the message has been written to
+     */
+    public int publish(String topic, ByteBuf message) {
+        try {
+            Set<Channel> channels = topics.get(topic);
+
+            if (wildcards.isEmpty()) {
+                if (channels == null) {
+                    return 0;
+                }
+
+                for (Channel channel : channels) {
+                    channel.writeAndFlush(message.duplicate().retain());
+                }
+
+                return channels.size();
+            }
+
+            Set<Channel> receivers = channels != null ? new HashSet<>(channels) : new HashSet<>();
+            String[] segments = topic.split("\\.");
+
+            for (Subscription subscription : wildcards.values()) {
+                if (subscription.matches(segments)) {
+                    receivers.addAll(subscription.channels);
+                }
+            }
+
+            for (Channel channel : receivers) {
+                channel.writeAndFlush(message.duplicate().retain());
+            }
+
+            return receivers.size();
+        } finally {
+            message.release();
+        }
+    }
+
+    /**
+     * @param topic the topic exactly as it has been subscribed
+     * @return the channels subscribed to the topic
+     */
+    public Set<Channel> getSubscribers(String topic) {
+        Set<Channel> channels;
+
+        if (isWildcard(topic)) {
+            Subscription subscription = wildcards.get(topic);
+            channels = subscription != null ? subscription.channels : null;
+        } else {
+            channels = topics.get(topic);
+        }
+
+        return channels != null ? Collections.unmodifiableSet(channels) : Collections.emptySet();
+    }
+
+    /**
+     * @param channel the channel
+     * @return the topics the channel is subscribed to
+     */
+    public Set<String> getSubscriptions(Channel channel) {
+        Set<String> subscriptions = channelTopics.get(channel);
+        return subscriptions != null ? Collections.unmodifiableSet(subscriptions)
+                : Collections.emptySet();
+    }
+
+    private static boolean isWildcard(String topic) {
+        return topic.indexOf('*') >= 0 || topic.indexOf('#') >= 0;
+    }
+
+    private static class Subscription {
+        private final String[] segments;
+        private final Set<Channel> channels = new CopyOnWriteArraySet<>();
+
+        Subscription(String pattern) {
+            this.segments = pattern.split("\\.");
+        }
+
+        static void validate(String pattern) {
+            int index = pattern.indexOf('#');
+
+            if (index >= 0 && index != pattern.length() - 1) {
+                throw new IllegalArgumentException("# must be the last segment: " + pattern);
+            }
+        }
+
+        boolean matches(String[] topic) {
+            for (int i = 0; i < segments.length; i++) {
+                if (segments[i].equals("#")) {
+                    return true;
+                } else if (i >= topic.length
+                        || (!segments[i].equals("*") && !segments[i].equals(topic[i]))) {
+                    return false;
+                }
+            }
+
+            return segments.length == topic.length;
+        }
+    }
+}
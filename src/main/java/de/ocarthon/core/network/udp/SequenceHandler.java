@@ -0,0 +1,80 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.udp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+/**
+ * Prefixes outgoing datagrams of a session with a sequence number and drops
+ * incoming datagrams that are not newer than the newest one received so
+ * far. Sequence numbers wrap around, a datagram is newer if its number is
+ * less than 2^31 ahead. A datagram that is more than {@link #RESTART_WINDOW}
+ * behind is taken as a restart of the other side and accepted.
+ */
+class SequenceHandler extends ChannelHandlerAdapter {
+    static final int RESTART_WINDOW = 1024;
+
+    private int nextSequence;
+    private int lastReceived;
+    private boolean receivedAny;
+    private long dropped;
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof ByteBuf) {
+            ByteBuf buf = (ByteBuf) msg;
+
+            if (buf.readableBytes() < 4) {
+                buf.release();
+                dropped++;
+                return;
+            }
+
+            int sequence = buf.readInt();
+
+            int age = lastReceived - sequence;
+            if (receivedAny && age >= 0 && age <= RESTART_WINDOW) {
+                buf.release();
+                dropped++;
+                return;
+            }
+
+            lastReceived = sequence;
+            receivedAny = true;
+        }
+
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof ByteBuf) {
+            ByteBuf header = ctx.alloc().buffer(4).writeInt(nextSequence++);
+            msg = Unpooled.wrappedBuffer(header, (ByteBuf) msg);
+        }
+
+        ctx.write(msg, promise);
+    }
+
+    long getDropped() {
+        return dropped;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.udp;
+
+import de.ocarthon.core.network.EventLoopResources;
+import io.netty.channel.ChannelFuture;
+
+import java.net.InetSocketAddress;
+
+public class UDPClient extends UDPEndpoint {
+    private UDPSession session;
+
+    public UDPClient() {
+        this(null);
+    }
+
+    /**
+     * @param resources the event loops to use, null to create a new one
+     */
+    public UDPClient(EventLoopResources resources) {
+        super(resources);
+    }
+
+    /**
+     * Binds a local port and opens the session to the server. Datagrams
+     * from other addresses are ignored. The session stays open until
+     * {@link #shutdown()} is called.
+     *
+     * @param host the host of the server
+     * @param port the port of the server
+     * @return whether the datagram channel could be connected
+     * @throws InterruptedException if interrupted while connecting
+     */
+    public boolean connect(String host, int port) throws InterruptedException {
+        InetSocketAddress remote = new InetSocketAddress(host, port);
+        ChannelFuture cf = bootstrap().connect(remote);
+        cf.sync();
+        started(cf.channel(), false);
+
+        cf.channel().eventLoop().submit(() -> session = session(remote)).sync();
+        return cf.isSuccess();
+    }
+
+    /**
+     * Sends the message to the server. Can be called from any thread.
+     *
+     * @param msg the message
+     */
+    public void send(Object msg) {
+        session.send(msg);
+    }
+
+    public UDPSession getSession() {
+        return session;
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.udp;
+
+import de.ocarthon.core.network.EventLoopResources;
+import de.ocarthon.core.network.tcp.TCPListener;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.util.ReferenceCountUtil;
+
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Common part of {@link UDPServer} and {@link UDPClient}. Every remote
+ * address gets a virtual session with its own pipeline, so codecs added
+ * with {@link #addCustomCodec(Consumer)} and the {@link TCPListener} work
+ * like with tcp connections. A session is opened by the first datagram of an
+ * address and closed if nothing has been received for the session timeout.
+ * If the maximum session count is reached, the session that has been idle
+ * the longest is closed to make room for a new address. Sessions are kept
+ * in the order of their last received datagram, so finding it takes
+ * constant time.
+ * Each datagram is one frame.<p>
+ * Session pipelines run on the event loop of the datagram channel. Messages
+ * written through the context passed to the listener are sent right away,
+ * from other threads {@link UDPSession#send(Object)} has to be used.
+ */
+public abstract class UDPEndpoint {
+    private final EventLoopGroup group;
+    private final boolean ownsGroup;
+    private final Map<InetSocketAddress, UDPSession> sessions = new ConcurrentHashMap<>();
+    // least recently received first, only used on the event loop
+    private final Map<InetSocketAddress, UDPSession> idleOrder =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private final ListenerHandler listenerHandler = new ListenerHandler();
+    private Consumer<ChannelPipeline> pipelineCodec;
+    private TCPListener listener;
+    private boolean sequenced;
+    private long sessionTimeoutMs = TimeUnit.SECONDS.toMillis(30);
+    private int maxDatagramSize = 2048;
+    private int maxSessions = 4096;
+    private ScheduledFuture<?> expiryTask;
+    protected Channel channel;
+
+    protected UDPEndpoint(EventLoopResources resources) {
+        if (resources != null) {
+            this.group = resources.getWorkerGroup();
+            this.ownsGroup = false;
+        } else {
+            this.group = new NioEventLoopGroup(1);
+            this.ownsGroup = true;
+        }
+    }
+
+    protected Bootstrap bootstrap() {
+        Bootstrap bootstrap = new Bootstrap();
+        bootstrap.group(group)
+                .channel(NioDatagramChannel.class)
+                .option(ChannelOption.RCVBUF_ALLOCATOR,
+                        new FixedRecvByteBufAllocator(maxDatagramSize))
+                .handler(new DatagramHandler());
+        return bootstrap;
+    }
+
+    /**
+     * @param channel    the bound datagram channel
+     * @param expireIdle whether sessions are closed after the session timeout
+     */
+    protected void started(Channel channel, boolean expireIdle) {
+        this.channel = channel;
+
+        if (expireIdle) {
+            long period = Math.max(sessionTimeoutMs / 2, 1);
+            this.expiryTask = channel.eventLoop().scheduleAtFixedRate(this::expireSessions,
+                    period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Prefixes every datagram with a sequence number and drops received
+     * datagrams that are older than the newest one of the session. Both
+     * sides have to enable sequence numbers.
+     */
+    public void enableSequenceNumbers() {
+        this.sequenced = true;
+    }
+
+    /**
+     * @param timeout time without received datagrams after which a session
+     *                is closed
+     * @param unit    unit of the timeout
+     */
+    public void setSessionTimeout(long timeout, TimeUnit unit) {
+        this.sessionTimeoutMs = unit.toMillis(timeout);
+    }
+
+    /**
+     * @param maxSessions number of sessions that can be open at the same
+     *                    time, further addresses replace the session that
+     *                    has been idle the longest
+     */
+    public void setMaxSessions(int maxSessions) {
+        if (maxSessions < 1) {
+            throw new IllegalArgumentException("maxSessions must be at least 1");
+        }
+
+        this.maxSessions = maxSessions;
+    }
+
+    /**
+     * @param maxDatagramSize size of the receive buffer, larger datagrams are
+     *                        truncated
+     */
+    public void setMaxDatagramSize(int maxDatagramSize) {
+        this.maxDatagramSize = maxDatagramSize;
+    }
+
+    /**
+     * Adds handlers to the pipeline of every session. Like with
+     * {@link de.ocarthon.core.network.tcp.TCPClient#addCustomCodec(Consumer)}
+     * codecs are added in the order they were registered.
+     *
+     * @param pipelineCodec adds the handlers to the pipeline
+     */
+    public void addCustomCodec(Consumer<ChannelPipeline> pipelineCodec) {
+        this.pipelineCodec = this.pipelineCodec != null
+                ? this.pipelineCodec.andThen(pipelineCodec) : pipelineCodec;
+    }
+
+    public void setListener(TCPListener listener) {
+        this.listener = listener;
+    }
+
+    public Collection<UDPSession> getSessions() {
+        return Collections.unmodifiableCollection(sessions.values());
+    }
+
+    public UDPSession getSession(InetSocketAddress address) {
+        return sessions.get(address);
+    }
+
+    public Channel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Closes all sessions and the datagram channel and shuts down the event
+     * loop group if it is not shared
+     */
+    public void shutdown() {
+        if (channel != null) {
+            channel.eventLoop().submit(() -> {
+                if (expiryTask != null) {
+                    expiryTask.cancel(false);
+                }
+
+                for (UDPSession session : sessions.values()) {
+                    closeSession(session);
+                }
+            }).awaitUninterruptibly();
+
+            channel.close().awaitUninterruptibly();
+        }
+
+        if (ownsGroup) {
+            group.shutdownGracefully().awaitUninterruptibly();
+        }
+    }
+
+    UDPSession session(InetSocketAddress remote) {
+        UDPSession session = sessions.get(remote);
+
+        if (session == null) {
+            while (sessions.size() >= maxSessions) {
+                closeSession(idleOrder.values().iterator().next());
+            }
+
+            session = new UDPSession(channel, remote);
+            sessions.put(remote, session);
+            idleOrder.put(remote, session);
+            session.open(newPipeline(session));
+        }
+
+        return session;
+    }
+
+    private ChannelInitializer<Channel> newPipeline(UDPSession session) {
+        return new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) throws Exception {
+                ChannelPipeline p = ch.pipeline();
+                p.addLast(session.new DatagramWriter());
+
+                if (sequenced) {
+                    p.addLast(new SequenceHandler());
+                }
+
+                if (pipelineCodec != null) {
+                    pipelineCodec.accept(p);
+                }
+
+                p.addLast(listenerHandler);
+            }
+        };
+    }
+
+    private void expireSessions() {
+        long now = System.currentTimeMillis();
+
+        while (!idleOrder.isEmpty()) {
+            UDPSession session = idleOrder.values().iterator().next();
+
+            if (now - session.getLastReceived() <= sessionTimeoutMs) {
+                break;
+            }
+            closeSession(session);
+        }
+
+        // timers of sessions that neither receive nor send
+        for (UDPSession session : sessions.values()) {
+            session.getSessionChannel().runPendingTasks();
+        }
+    }
+
+    private void closeSession(UDPSession session) {
+        sessions.remove(session.getRemoteAddress());
+        idleOrder.remove(session.getRemoteAddress());
+        EmbeddedChannel sessionChannel = session.getSessionChannel();
+        sessionChannel.close();
+        sessionChannel.runPendingTasks();
+    }
+
+    private class DatagramHandler extends ChannelHandlerAdapter {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            if (!(msg instanceof DatagramPacket)) {
+                ReferenceCountUtil.release(msg);
+                return;
+            }
+
+            DatagramPacket packet = (DatagramPacket) msg;
+            UDPSession session = session(packet.sender());
+            idleOrder.get(packet.sender());
+            session.received(packet.content());
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+            if (listener != null) listener.onExceptionCaught(ctx, cause);
+        }
+    }
+
+    @ChannelHandler.Sharable
+    private class ListenerHandler extends ChannelHandlerAdapter {
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            if (listener != null) listener.onClientConnect(ctx);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            if (listener != null) listener.onClientDisconnect(ctx);
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            if (listener != null) listener.onMessageReceived(ctx, msg);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+            if (listener != null) listener.onExceptionCaught(ctx, cause);
+        }
+    }
+}
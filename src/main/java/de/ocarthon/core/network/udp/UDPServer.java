@@ -0,0 +1,58 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.udp;
+
+import de.ocarthon.core.network.EventLoopResources;
+import io.netty.channel.ChannelFuture;
+
+import java.net.InetSocketAddress;
+
+public class UDPServer extends UDPEndpoint {
+
+    public UDPServer() {
+        this(null);
+    }
+
+    /**
+     * @param resources the event loops to use, null to create a new one
+     */
+    public UDPServer(EventLoopResources resources) {
+        super(resources);
+    }
+
+    public boolean bind(int port) throws InterruptedException {
+        return bind("0.0.0.0", port);
+    }
+
+    public boolean bind(String host, int port) throws InterruptedException {
+        ChannelFuture cf = bootstrap().bind(host, port);
+        cf.sync();
+        started(cf.channel(), true);
+        return cf.isSuccess();
+    }
+
+    /**
+     * Sends a message to the given address. A session is opened if there is
+     * none yet.
+     *
+     * @param address the remote address
+     * @param msg     the message
+     */
+    public void send(InetSocketAddress address, Object msg) {
+        channel.eventLoop().execute(() -> session(address).send(msg));
+    }
+}
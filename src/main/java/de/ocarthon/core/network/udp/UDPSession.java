@@ -0,0 +1,139 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.udp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.handler.codec.UnsupportedMessageTypeException;
+import io.netty.util.ReferenceCountUtil;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+/**
+ * A virtual connection to one remote address of a {@link UDPEndpoint}. The
+ * session has its own pipeline, which is passed to the listener as context.
+ * The channel of the pipeline reports the addresses of the datagram
+ * channel and the peer. Scheduled tasks of its handlers run after every
+ * received datagram and every send, and periodically while idle sessions
+ * are expired.
+ */
+public class UDPSession {
+    private final Channel datagramChannel;
+    private final InetSocketAddress remoteAddress;
+    private EmbeddedChannel sessionChannel;
+    private volatile long lastReceived = System.currentTimeMillis();
+
+    UDPSession(Channel datagramChannel, InetSocketAddress remoteAddress) {
+        this.datagramChannel = datagramChannel;
+        this.remoteAddress = remoteAddress;
+    }
+
+    void open(ChannelInitializer<Channel> initializer) {
+        this.sessionChannel = new SessionChannel(initializer);
+    }
+
+    void received(ByteBuf datagram) {
+        lastReceived = System.currentTimeMillis();
+        sessionChannel.writeInbound(datagram);
+        sessionChannel.runPendingTasks();
+    }
+
+    /**
+     * Writes the message through the pipeline of the session. Can be called
+     * from any thread.
+     *
+     * @param msg the message
+     */
+    public void send(Object msg) {
+        if (datagramChannel.eventLoop().inEventLoop()) {
+            write(msg);
+        } else {
+            datagramChannel.eventLoop().execute(() -> write(msg));
+        }
+    }
+
+    private void write(Object msg) {
+        sessionChannel.writeAndFlush(msg);
+        sessionChannel.runPendingTasks();
+    }
+
+    public InetSocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    /**
+     * @return the value of {@link System#currentTimeMillis()} when the last
+     * datagram was received
+     */
+    public long getLastReceived() {
+        return lastReceived;
+    }
+
+    EmbeddedChannel getSessionChannel() {
+        return sessionChannel;
+    }
+
+    /**
+     * Sends frames leaving the session pipeline as datagrams to the remote
+     * address
+     */
+    class DatagramWriter extends ChannelHandlerAdapter {
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (!(msg instanceof ByteBuf)) {
+                // the embedded channel would keep it forever
+                Exception cause = new UnsupportedMessageTypeException(msg, ByteBuf.class);
+                ReferenceCountUtil.release(msg);
+                promise.tryFailure(cause);
+                return;
+            }
+
+            datagramChannel.writeAndFlush(new DatagramPacket((ByteBuf) msg, remoteAddress))
+                    .addListener((ChannelFutureListener) f -> {
+                        if (f.isSuccess()) {
+                            promise.trySuccess();
+                        } else {
+                            promise.tryFailure(f.cause());
+                        }
+                    });
+        }
+    }
+
+    private class SessionChannel extends EmbeddedChannel {
+        SessionChannel(ChannelInitializer<Channel> initializer) {
+            super(initializer);
+        }
+
+        @Override
+        protected SocketAddress localAddress0() {
+            return datagramChannel.localAddress();
+        }
+
+        @Override
+        protected SocketAddress remoteAddress0() {
+            return remoteAddress;
+        }
+    }
+}
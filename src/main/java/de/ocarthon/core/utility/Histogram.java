@@ -0,0 +1,231 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.utility;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative long values. Values are counted in
+ * buckets that double in size, every power of two is split into
+ * {@link #SUB_BUCKETS} linear sub buckets. Percentiles are therefore
+ * accurate to about 12.5%.<p>
+ * To reduce contention if many threads record values at the same time, the
+ * histogram can be split into stripes. Each thread records into the stripe
+ * selected by its id, {@link #snapshot()} merges all stripes.
+ */
+public class Histogram {
+    /**
+     * number of linear sub buckets per power of two
+     */
+    public static final int SUB_BUCKETS = 8;
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    /**
+     * one array per stripe, the last two slots hold the sum and the maximum
+     */
+    private final AtomicLongArray[] stripes;
+
+    /**
+     * Creates a new histogram with the given number of stripes
+     *
+     * @param stripes the number of stripes, 1 if only one thread records
+     *                values at a time
+     */
+    public Histogram(int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("stripes must be at least 1");
+        }
+
+        this.stripes = new AtomicLongArray[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new AtomicLongArray(BUCKETS + 2);
+        }
+    }
+
+    /**
+     * Creates a new histogram with a single stripe
+     */
+    public Histogram() {
+        this(1);
+    }
+
+    /**
+     * Returns the bucket the given value is counted in
+     *
+     * @param value the value
+     * @return index of the bucket
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(value, 0);
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> exponent) & (SUB_BUCKETS - 1);
+
+        return (exponent + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the highest value that is counted in the given bucket
+     *
+     * @param index index of the bucket
+     * @return the highest value of the bucket
+     */
+    static long bucketValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        int exponent = index / SUB_BUCKETS - 1;
+        long subBucket = SUB_BUCKETS + (index % SUB_BUCKETS);
+
+        return ((subBucket + 1) << exponent) - 1;
+    }
+
+    /**
+     * Records a value. Negative values are counted as 0.
+     *
+     * @param value the value
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+
+        AtomicLongArray stripe = stripes.length == 1 ? stripes[0]
+                : stripes[(int) (Thread.currentThread().getId() % stripes.length)];
+
+        stripe.incrementAndGet(bucketIndex(value));
+        stripe.addAndGet(BUCKETS, value);
+
+        long max;
+        while (value > (max = stripe.get(BUCKETS + 1))) {
+            if (stripe.compareAndSet(BUCKETS + 1, max, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Creates a snapshot of the histogram. Values that are recorded while the
+     * snapshot is created may or may not be included.
+     *
+     * @return the snapshot
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long sum = 0;
+        long max = 0;
+
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += stripe.get(i);
+            }
+
+            sum += stripe.get(BUCKETS);
+            max = Math.max(max, stripe.get(BUCKETS + 1));
+        }
+
+        return new Snapshot(counts, sum, max);
+    }
+
+    /**
+     * An immutable view of a {@link Histogram}
+     */
+    public static class Snapshot {
+        /**
+         * a snapshot without any recorded values
+         */
+        public static final Snapshot EMPTY = new Snapshot(new long[BUCKETS], 0, 0);
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long sum, long max) {
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * @return the number of recorded values
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the sum of all recorded values
+         */
+        public long getSum() {
+            return sum;
+        }
+
+        /**
+         * @return the highest recorded value
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @return the mean of all recorded values or 0 if nothing was recorded
+         */
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * Returns the value below which the given share of the recorded values
+         * lies. The returned value is the upper bound of the bucket, but never
+         * bigger than the highest recorded value.
+         *
+         * @param percentile the percentile between 0 and 100
+         * @return the value at the percentile or 0 if nothing was recorded
+         */
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(percentile / 100d * count);
+            rank = Math.max(1, Math.min(rank, count));
+
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+
+                if (seen >= rank) {
+                    return Math.min(bucketValue(i), max);
+                }
+            }
+
+            return max;
+        }
+    }
+}
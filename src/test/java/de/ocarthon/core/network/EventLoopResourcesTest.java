@@ -0,0 +1,68 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network;
+
+import de.ocarthon.core.network.tcp.TCPClient;
+import de.ocarthon.core.network.tcp.TCPServer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EventLoopResourcesTest {
+    private static final int PORT = 24324;
+
+    @Test
+    public void testShared() {
+        assertSame(EventLoopResources.shared(), EventLoopResources.shared());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalThreadCount() {
+        new EventLoopResources(1, 0, "test");
+    }
+
+    @Test
+    public void testSharedByServerAndClients() throws Exception {
+        EventLoopResources resources = new EventLoopResources(1, 2, "test", true);
+
+        TCPServer server = new TCPServer(false, resources);
+        server.initBootstrap();
+        assertTrue(server.bind(PORT));
+
+        TCPClient client1 = new TCPClient(false, resources);
+        client1.initBootstrap();
+        assertTrue(client1.connect("127.0.0.1", PORT));
+
+        TCPClient client2 = new TCPClient(false, resources);
+        client2.initBootstrap();
+        assertTrue(client2.connect("127.0.0.1", PORT));
+
+        client1.release();
+        assertFalse(resources.getWorkerGroup().isShuttingDown());
+        assertTrue(client2.getChannel().isActive());
+
+        client2.release();
+        server.shutdown();
+        assertFalse(resources.getBossGroup().isShuttingDown());
+        assertFalse(resources.getWorkerGroup().isShuttingDown());
+
+        resources.shutdownGracefully().awaitUninterruptibly();
+        assertTrue(resources.getWorkerGroup().isTerminated());
+    }
+}
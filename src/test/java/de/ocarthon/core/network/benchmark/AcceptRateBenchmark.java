@@ -0,0 +1,137 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.benchmark;
+
+import de.ocarthon.core.network.tcp.TCPListener;
+import de.ocarthon.core.network.tcp.TCPServer;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.epoll.Epoll;
+import io.netty.util.internal.PlatformDependent;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures how fast {@link TCPServer} accepts connections while many clients
+ * connect at once, with a single acceptor and with SO_REUSEPORT acceptors.
+ * A connection counts once the server has reported it to its listener, the
+ * client side connect already completes in the kernel backlog.
+ * Run with {@code [connections] [client threads] [acceptors]}.
+ */
+public class AcceptRateBenchmark {
+    private static final int PORT = 24400;
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int acceptors = args.length > 2 ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors();
+
+        // warm up
+        run(0, connections / 10, threads);
+
+        System.out.printf("single acceptor:   %.0f connections/s%n", run(0, connections, threads));
+
+        // the native transport needs sun.misc.Unsafe
+        if (Epoll.isAvailable() && PlatformDependent.hasUnsafe()) {
+            System.out.printf("%2d reuseport:      %.0f connections/s%n", acceptors,
+                    run(acceptors, connections, threads));
+        } else {
+            System.out.println("SO_REUSEPORT skipped, the native epoll transport is not usable");
+        }
+    }
+
+    /**
+     * @param acceptors 0 for a normal bind
+     * @return accepted connections per second
+     */
+    private static double run(int acceptors, int connections, int threads) throws Exception {
+        AcceptCounter counter = new AcceptCounter();
+        TCPServer server = new TCPServer(false);
+        server.setListener(counter);
+        server.initBootstrap();
+
+        if (acceptors > 0) {
+            server.bindReusePort("127.0.0.1", PORT, acceptors);
+        } else {
+            server.bind("127.0.0.1", PORT);
+        }
+
+        AtomicInteger remaining = new AtomicInteger(connections);
+        AtomicInteger connected = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(threads);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                while (remaining.getAndDecrement() > 0) {
+                    try (Socket socket = new Socket()) {
+                        socket.setSoLinger(true, 0);
+                        socket.connect(new InetSocketAddress("127.0.0.1", PORT));
+                        connected.incrementAndGet();
+                    } catch (IOException e) {
+                        System.err.println(e);
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+
+        done.await();
+
+        long deadline = System.currentTimeMillis() + 30000;
+        while (counter.accepted.get() < connected.get()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+
+        int accepted = counter.accepted.get();
+        double seconds = (counter.lastAccept - start) / 1e9;
+        server.shutdown();
+
+        if (accepted < connected.get()) {
+            System.err.printf("only %d of %d connections were accepted%n", accepted, connected.get());
+        }
+        return accepted / seconds;
+    }
+
+    private static class AcceptCounter implements TCPListener {
+        private final AtomicInteger accepted = new AtomicInteger();
+        private volatile long lastAccept;
+
+        @Override
+        public void onClientConnect(ChannelHandlerContext ctx) {
+            lastAccept = System.nanoTime();
+            accepted.incrementAndGet();
+        }
+
+        @Override
+        public void onClientDisconnect(ChannelHandlerContext ctx) {
+        }
+
+        @Override
+        public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+        }
+
+        @Override
+        public void onExceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        }
+    }
+}
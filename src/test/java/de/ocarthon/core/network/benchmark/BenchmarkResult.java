@@ -0,0 +1,62 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.benchmark;
+
+import de.ocarthon.core.utility.Histogram;
+
+/**
+ * Result of one benchmark scenario, serialized to json by
+ * {@link NetworkBenchmark}
+ */
+public class BenchmarkResult {
+    final String scenario;
+    final boolean tls;
+    final String codec;
+    final int connections;
+    final int messageSize;
+    final long messages;
+    final double messagesPerSecond;
+    final double p50Micros;
+    final double p99Micros;
+    final double p999Micros;
+    final double maxMicros;
+    final double allocatedBytesPerMessage;
+
+    BenchmarkResult(String scenario, boolean tls, String codec, int connections, int messageSize,
+                    double seconds, Histogram.Snapshot latency, long allocatedBytes) {
+        this.scenario = scenario;
+        this.tls = tls;
+        this.codec = codec;
+        this.connections = connections;
+        this.messageSize = messageSize;
+        this.messages = latency.getCount();
+        this.messagesPerSecond = messages / seconds;
+        this.p50Micros = latency.getPercentile(50) / 1000.0;
+        this.p99Micros = latency.getPercentile(99) / 1000.0;
+        this.p999Micros = latency.getPercentile(99.9) / 1000.0;
+        this.maxMicros = latency.getMax() / 1000.0;
+        this.allocatedBytesPerMessage = messages > 0 ? (double) allocatedBytes / messages : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-5s tls=%-5s codec=%-10s conns=%-3d size=%-6d %10.0f msg/s  "
+                        + "p50=%8.1fus p99=%8.1fus p999=%8.1fus  %8.1f B/msg",
+                scenario, tls, codec, connections, messageSize, messagesPerSecond, p50Micros,
+                p99Micros, p999Micros, allocatedBytesPerMessage);
+    }
+}
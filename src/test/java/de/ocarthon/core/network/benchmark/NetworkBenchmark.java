@@ -0,0 +1,314 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.benchmark;
+
+import com.google.gson.GsonBuilder;
+import de.ocarthon.core.network.EventLoopResources;
+import de.ocarthon.core.network.HttpClient;
+import de.ocarthon.core.network.tcp.TCPClient;
+import de.ocarthon.core.network.tcp.TCPListener;
+import de.ocarthon.core.network.tcp.TCPServer;
+import de.ocarthon.core.utility.Histogram;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+
+import java.io.FileWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures throughput, latency and allocations of {@link TCPServer} and
+ * {@link TCPClient} and of {@link HttpClient} against a local stub server,
+ * all over loopback. Every client keeps a fixed number of messages in
+ * flight, the server echoes them and the client measures the round trip
+ * time. Allocations are the bytes allocated by all threads running when the
+ * measurement starts, divided by the number of measured messages.<p>
+ * Arguments are {@code key=value} pairs, lists are separated by commas:
+ * <pre>
+ * connections=4 sizes=64,1024,16384 tls=false,true codecs=raw,compressed
+ * window=16 warmup=2 duration=5 http=true output=results.json
+ * </pre>
+ * The results are printed and, if an output file is given, written as json.
+ */
+public class NetworkBenchmark {
+    private static final int TCP_PORT = 24401;
+    private static final int HTTP_PORT = 24402;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            options.put(arg.substring(0, index), arg.substring(index + 1));
+        }
+
+        int connections = Integer.parseInt(options.getOrDefault("connections", "4"));
+        int window = Integer.parseInt(options.getOrDefault("window", "16"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "2"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "5"));
+
+        List<BenchmarkResult> results = new ArrayList<>();
+
+        for (String tls : options.getOrDefault("tls", "false,true").split(",")) {
+            for (String codec : options.getOrDefault("codecs", "raw,compressed").split(",")) {
+                for (String size : options.getOrDefault("sizes", "64,1024,16384").split(",")) {
+                    BenchmarkResult result = runTcp(connections, window,
+                            Integer.parseInt(size), Boolean.parseBoolean(tls), codec, warmup,
+                            duration);
+                    System.out.println(result);
+                    results.add(result);
+                }
+            }
+        }
+
+        if (Boolean.parseBoolean(options.getOrDefault("http", "true"))) {
+            BenchmarkResult result = runHttp(connections, warmup, duration);
+            System.out.println(result);
+            results.add(result);
+        }
+
+        String output = options.get("output");
+        if (output != null) {
+            try (Writer writer = new FileWriter(output)) {
+                new GsonBuilder().setPrettyPrinting().create().toJson(results, writer);
+            }
+        }
+    }
+
+    static BenchmarkResult runTcp(int connections, int window, int size, boolean tls,
+                                  String codec, int warmup, int duration) throws Exception {
+        EventLoopResources resources = new EventLoopResources(1,
+                Runtime.getRuntime().availableProcessors(), "benchmark", true);
+        Histogram latency = new Histogram(Runtime.getRuntime().availableProcessors());
+        Measurement measurement = new Measurement();
+
+        TCPServer server = new TCPServer(tls, resources);
+        configureCodec(server, null, codec);
+        server.setListener(new Listener() {
+            @Override
+            public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+                ctx.writeAndFlush(message);
+            }
+        });
+        server.initBootstrap();
+        server.bind("127.0.0.1", TCP_PORT);
+
+        List<TCPClient> clients = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            TCPClient client = new TCPClient(tls, resources);
+            configureCodec(null, client, codec);
+            client.setListener(new Listener() {
+                @Override
+                public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+                    ByteBuf buf = (ByteBuf) message;
+
+                    if (measurement.measuring) {
+                        latency.record(System.nanoTime() - buf.getLong(0));
+                    }
+
+                    if (measurement.running) {
+                        buf.setLong(0, System.nanoTime());
+                        ctx.writeAndFlush(buf);
+                    } else {
+                        buf.release();
+                    }
+                }
+            });
+            client.initBootstrap();
+            client.connect("127.0.0.1", TCP_PORT);
+            clients.add(client);
+        }
+
+        byte[] payload = new byte[Math.max(size, 8)];
+        for (int i = 0; i < payload.length; i++) {
+            // compressible, but not trivially
+            payload[i] = (byte) ("benchmark payload ".charAt(i % 18) + i / 1024);
+        }
+
+        for (TCPClient client : clients) {
+            for (int i = 0; i < window; i++) {
+                ByteBuf buf = Unpooled.copiedBuffer(payload);
+                buf.setLong(0, System.nanoTime());
+                client.getChannel().writeAndFlush(buf);
+            }
+        }
+
+        double seconds = measurement.run(warmup, duration);
+
+        for (TCPClient client : clients) {
+            client.close();
+        }
+        server.shutdown();
+        resources.shutdownGracefully().awaitUninterruptibly();
+
+        return new BenchmarkResult("tcp", tls, codec, connections, size, seconds,
+                latency.snapshot(), measurement.allocated);
+    }
+
+    static BenchmarkResult runHttp(int connections, int warmup, int duration) throws Exception {
+        EventLoopResources resources = new EventLoopResources(1,
+                Runtime.getRuntime().availableProcessors(), "benchmark", true);
+        HttpClient.setEventLoopResources(resources);
+        Histogram latency = new Histogram(connections);
+        Measurement measurement = new Measurement();
+
+        Channel server = new ServerBootstrap()
+                .group(resources.getBossGroup(), resources.getWorkerGroup())
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) throws Exception {
+                        ch.pipeline().addLast(new HttpServerCodec(),
+                                new HttpObjectAggregator(1 << 20), new StubHandler());
+                    }
+                })
+                .bind("127.0.0.1", HTTP_PORT).sync().channel();
+
+        CountDownLatch stopped = new CountDownLatch(connections);
+        List<Map.Entry<String, String>> parameters = Collections.singletonList(
+                new AbstractMap.SimpleEntry<>("key", "value"));
+
+        for (int i = 0; i < connections; i++) {
+            new Thread(() -> {
+                HttpClient client = new HttpClient("http", "127.0.0.1", HTTP_PORT);
+
+                while (measurement.running) {
+                    long start = System.nanoTime();
+                    client.postRequest("benchmark", parameters);
+
+                    if (measurement.measuring) {
+                        latency.record(System.nanoTime() - start);
+                    }
+                }
+                stopped.countDown();
+            }, "http-benchmark-" + i).start();
+        }
+
+        double seconds = measurement.run(warmup, duration);
+        stopped.await();
+
+        server.close().sync();
+        HttpClient.setEventLoopResources(null);
+        resources.shutdownGracefully().awaitUninterruptibly();
+
+        return new BenchmarkResult("http", false, "http", connections, 0, seconds,
+                latency.snapshot(), measurement.allocated);
+    }
+
+    private static void configureCodec(TCPServer server, TCPClient client, String codec) {
+        switch (codec) {
+            case "raw":
+                break;
+            case "compressed":
+                if (server != null) {
+                    server.enableCompression(256, null);
+                } else {
+                    client.enableCompression(256, null);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("unknown codec: " + codec);
+        }
+    }
+
+    /**
+     * Runs a warmup and a measurement and records the allocations of the
+     * measurement
+     */
+    private static class Measurement {
+        volatile boolean running = true;
+        volatile boolean measuring;
+        long allocated;
+
+        double run(int warmup, int duration) throws InterruptedException {
+            Thread.sleep(warmup * 1000L);
+
+            com.sun.management.ThreadMXBean threads =
+                    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long[] ids = threads.getAllThreadIds();
+            long[] before = threads.getThreadAllocatedBytes(ids);
+
+            long start = System.nanoTime();
+            measuring = true;
+            Thread.sleep(duration * 1000L);
+            measuring = false;
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            // threads that have terminated in between report -1
+            long[] after = threads.getThreadAllocatedBytes(ids);
+            for (int i = 0; i < ids.length; i++) {
+                if (before[i] >= 0 && after[i] >= 0) {
+                    allocated += after[i] - before[i];
+                }
+            }
+
+            running = false;
+            return seconds;
+        }
+    }
+
+    private static class StubHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+        private static final byte[] BODY = "ok".getBytes(CharsetUtil.UTF_8);
+
+        @Override
+        protected void messageReceived(ChannelHandlerContext ctx, FullHttpRequest msg) {
+            FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+                    HttpResponseStatus.OK, Unpooled.wrappedBuffer(BODY));
+            response.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, BODY.length);
+            ctx.writeAndFlush(response);
+        }
+    }
+
+    private static class Listener implements TCPListener {
+        @Override
+        public void onClientConnect(ChannelHandlerContext ctx) {
+        }
+
+        @Override
+        public void onClientDisconnect(ChannelHandlerContext ctx) {
+        }
+
+        @Override
+        public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+        }
+
+        @Override
+        public void onExceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        }
+    }
+}
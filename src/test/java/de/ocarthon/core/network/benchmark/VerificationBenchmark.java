@@ -0,0 +1,96 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.benchmark;
+
+import com.google.flatbuffers.FlatBufferBuilder;
+import de.ocarthon.core.network.codec.flatbuffer.FlatBufferCodecTest.FBTest;
+import de.ocarthon.core.network.codec.flatbuffer.FlatBufferVerifier;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Measures the cost of {@link FlatBufferVerifier} compared to decoding
+ * without verification, for tables with a string and an int vector of
+ * different lengths. Run with {@code [iterations]}.
+ */
+public class VerificationBenchmark {
+    private static final int[] VECTOR_LENGTHS = {0, 16, 256, 4096};
+
+    private static final FlatBufferVerifier.TableVerifier FIELDS = (bb, tablePos) -> {
+        FlatBufferVerifier.verifyString(bb, tablePos, 6);
+        FlatBufferVerifier.verifyVector(bb, tablePos, 8, 4);
+    };
+
+    private static long sink;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+
+        for (int length : VECTOR_LENGTHS) {
+            ByteBuffer bb = ByteBuffer.wrap(build(length));
+
+            // warm up
+            run(bb, null, iterations / 10);
+            run(bb, FlatBufferVerifier.STRUCTURE, iterations / 10);
+            run(bb, FIELDS, iterations / 10);
+
+            System.out.printf("size=%-6d none=%6.1fns  structure=%6.1fns  fields=%6.1fns%n",
+                    bb.remaining(), run(bb, null, iterations),
+                    run(bb, FlatBufferVerifier.STRUCTURE, iterations),
+                    run(bb, FIELDS, iterations));
+        }
+
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    /**
+     * @return nanoseconds per decoded message
+     */
+    private static double run(ByteBuffer bb, FlatBufferVerifier.TableVerifier verifier,
+                              int iterations) {
+        long start = System.nanoTime();
+
+        for (int i = 0; i < iterations; i++) {
+            if (verifier != null) {
+                FlatBufferVerifier.verify(bb, verifier);
+            }
+            sink += FBTest.getRootAsFBTest(bb).test();
+        }
+
+        return (double) (System.nanoTime() - start) / iterations;
+    }
+
+    private static byte[] build(int vectorLength) {
+        FlatBufferBuilder fbb = new FlatBufferBuilder(64);
+        int string = fbb.createString("benchmark");
+
+        fbb.startVector(4, vectorLength, 4);
+        for (int i = 0; i < vectorLength; i++) {
+            fbb.addInt(i);
+        }
+        int vector = fbb.endVector();
+
+        fbb.startObject(3);
+        fbb.addInt(0, 1337, 0);
+        fbb.addOffset(1, string, 0);
+        fbb.addOffset(2, vector, 0);
+        fbb.finish(fbb.endObject());
+        return fbb.sizedByteArray();
+    }
+}
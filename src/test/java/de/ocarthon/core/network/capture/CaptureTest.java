@@ -0,0 +1,156 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.capture;
+
+import de.ocarthon.core.network.tcp.TCPClient;
+import de.ocarthon.core.network.tcp.TCPListener;
+import de.ocarthon.core.network.tcp.TCPServer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CaptureTest {
+    private static final int PORT = 24328;
+    private static final int SEGMENT_SIZE = 1 << 17;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testConcurrentWritesAcrossSegments() throws Exception {
+        File directory = folder.newFolder();
+        CaptureWriter writer = new CaptureWriter(directory, SEGMENT_SIZE);
+        int threads = 4;
+        int frames = 2000;
+
+        Thread[] writers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int channelId = t;
+            writers[t] = new Thread(() -> {
+                ByteBuf data = Unpooled.buffer(100);
+                for (int i = 0; i < frames; i++) {
+                    data.clear().writeInt(i).writerIndex(100);
+                    writer.record(channelId, CapturedFrame.Type.INBOUND, data);
+                }
+            });
+            writers[t].start();
+        }
+
+        for (Thread thread : writers) {
+            thread.join();
+        }
+        writer.close();
+
+        assertTrue(directory.listFiles().length > 1);
+        assertEquals(0, writer.getDropped());
+
+        int[] next = new int[threads];
+        try (CaptureReader reader = new CaptureReader(directory)) {
+            CapturedFrame frame;
+            while ((frame = reader.next()) != null) {
+                assertEquals(100, frame.getData().readableBytes());
+                assertEquals(next[frame.getChannelId()]++, frame.getData().readInt());
+            }
+        }
+
+        for (int count : next) {
+            assertEquals(frames, count);
+        }
+    }
+
+    @Test
+    public void testCaptureAndReplay() throws Exception {
+        File directory = folder.newFolder();
+        CaptureWriter writer = new CaptureWriter(directory, SEGMENT_SIZE);
+        CountDownLatch received = new CountDownLatch(10);
+
+        TCPServer server = new TCPServer(false);
+        server.enableCapture(writer);
+        server.setListener(new CountingListener(received));
+        server.initBootstrap();
+        assertTrue(server.bind(PORT));
+
+        TCPClient client = new TCPClient(false);
+        client.initBootstrap();
+        assertTrue(client.connect("127.0.0.1", PORT));
+        for (int i = 0; i < 5; i++) {
+            client.getChannel().writeAndFlush(Unpooled.buffer(4).writeInt(i));
+        }
+
+        // wait for the first five frames before closing the capture
+        long deadline = System.currentTimeMillis() + 5000;
+        while (received.getCount() > 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        client.release();
+        Thread.sleep(100);
+        writer.close();
+
+        try (CaptureReader reader = new CaptureReader(directory)) {
+            assertEquals(CapturedFrame.Type.CONNECT, reader.next().getType());
+            for (int i = 0; i < 5; i++) {
+                CapturedFrame frame = reader.next();
+                assertEquals(CapturedFrame.Type.INBOUND, frame.getType());
+                assertEquals(i, frame.getData().readInt());
+            }
+            assertEquals(CapturedFrame.Type.DISCONNECT, reader.next().getType());
+            assertNull(reader.next());
+        }
+
+        assertEquals(5, new CaptureReplayer(directory, false).replay("127.0.0.1", PORT, 0));
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+
+        server.shutdown();
+    }
+
+    private static class CountingListener implements TCPListener {
+        private final CountDownLatch latch;
+
+        CountingListener(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void onClientConnect(ChannelHandlerContext ctx) {
+        }
+
+        @Override
+        public void onClientDisconnect(ChannelHandlerContext ctx) {
+        }
+
+        @Override
+        public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+            ((ByteBuf) message).release();
+            latch.countDown();
+        }
+
+        @Override
+        public void onExceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        }
+    }
+}
@@ -19,6 +19,11 @@ package de.ocarthon.core.network.codec.flatbuffer;
 import com.google.flatbuffers.FlatBufferBuilder;
 import com.google.flatbuffers.Table;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.EncoderException;
+import io.netty.util.ReferenceCountUtil;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -28,7 +33,11 @@ import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class FlatBufferCodecTest {
     @Rule
@@ -60,9 +69,212 @@ public class FlatBufferCodecTest {
         assertEquals(1337, fb.test());
     }
 
+    @Test
+    public void testPlainBuilderReuse() throws Exception {
+        FlatBufferBuilder fbb = new FlatBufferBuilder(32);
+        FBTest.finishFBTestBuffer(fbb, FBTest.createFBTest(fbb, 1337));
+
+        FlatBufferCodec<FBTest> codec = new FlatBufferCodec<>(FBTest.class);
+        List<Object> list = new ArrayList<>();
+        codec.encode(null, fbb, list);
+
+        // the builder is reused before the frame has been written
+        fbb.clear();
+        FBTest.finishFBTestBuffer(fbb, FBTest.createFBTest(fbb, 42));
+
+        ByteBuf buf = (ByteBuf) list.remove(0);
+        codec.decode(null, buf, list);
+        assertEquals(1337, ((FBTest) list.get(0)).test());
+    }
+
+    @Test
+    public void testFunctionConstructor() throws Exception {
+        FlatBufferBuilder fbb = new FlatBufferBuilder(32);
+        FBTest.finishFBTestBuffer(fbb, FBTest.createFBTest(fbb, 42));
+
+        FlatBufferCodec<FBTest> codec = new FlatBufferCodec<>(FBTest::getRootAsFBTest);
+        List<Object> list = new ArrayList<>();
+
+        codec.encode(null, fbb, list);
+        ByteBuf buf = ((ByteBuf) list.get(0));
+        list.clear();
+
+        codec.decode(null, buf, list);
+        assertEquals(42, ((FBTest) list.get(0)).test());
+    }
+
+    @Test
+    public void testNonPublicTable() throws Exception {
+        FlatBufferBuilder fbb = new FlatBufferBuilder(32);
+        FBTest.finishFBTestBuffer(fbb, FBTest.createFBTest(fbb, 7));
+
+        // not accessible to a generated lambda, uses the method handle
+        FlatBufferCodec<HiddenTest> codec = new FlatBufferCodec<>(HiddenTest.class);
+        List<Object> list = new ArrayList<>();
+
+        codec.encode(null, fbb, list);
+        ByteBuf buf = ((ByteBuf) list.get(0));
+        list.clear();
+
+        codec.decode(null, buf, list);
+        assertEquals(7, ((HiddenTest) list.get(0)).test());
+    }
+
+    @Test
+    public void testByteBufBuilder() throws Exception {
+        FlatBufferBuilder expected = new FlatBufferBuilder(32);
+        FBTest.finishFBTestBuffer(expected, FBTest.createFBTest(expected, 1337));
+
+        // too small for the table, the builder has to grow
+        ByteBufFlatBufferBuilder fbb = new ByteBufFlatBufferBuilder(PooledByteBufAllocator.DEFAULT, 4);
+        FBTest.finishFBTestBuffer(fbb, FBTest.createFBTest(fbb, 1337));
+
+        FlatBufferCodec<FBTest> codec = new FlatBufferCodec<>(FBTest.class);
+        List<Object> list = new ArrayList<>();
+
+        codec.encode(null, fbb, list);
+        ByteBuf buf = ((ByteBuf) list.get(0));
+        byte[] bytes = new byte[buf.readableBytes()];
+        buf.getBytes(buf.readerIndex(), bytes);
+        assertArrayEquals(expected.sizedByteArray(), bytes);
+        list.clear();
+
+        codec.decode(null, buf, list);
+        assertEquals(1337, ((FBTest) list.get(0)).test());
+
+        assertTrue(buf.release());
+    }
+
+    @Test
+    public void testByteBufBuilderRelease() {
+        ByteBufFlatBufferBuilder fbb = new ByteBufFlatBufferBuilder(UnpooledByteBufAllocator.DEFAULT, 4);
+        FBTest.createFBTest(fbb, 1);
+        fbb.release();
+    }
+
+    @Test
+    public void testBuilderPool() throws Exception {
+        FlatBufferBuilderPool pool = new FlatBufferBuilderPool(PooledByteBufAllocator.DEFAULT, 4, 1024);
+        FlatBufferCodec<FBTest> codec = new FlatBufferCodec<>(FBTest.class);
+        List<Object> list = new ArrayList<>();
+
+        ByteBufFlatBufferBuilder fbb = pool.acquire();
+        FBTest.finishFBTestBuffer(fbb, FBTest.createFBTest(fbb, 1337));
+        codec.encode(null, fbb, list);
+        ByteBuf buf = (ByteBuf) list.get(0);
+        int size = buf.readableBytes();
+
+        // released by MessageToMessageCodec after encoding
+        assertTrue(fbb.release());
+        assertTrue(pool.getInitialSize() >= size);
+        ByteBufFlatBufferBuilder reused = pool.acquire();
+        assertSame(fbb, reused);
+        FBTest.finishFBTestBuffer(reused, FBTest.createFBTest(reused, 42));
+        codec.encode(null, reused, list);
+        reused.release();
+
+        list.remove(0);
+        codec.decode(null, buf, list);
+        codec.decode(null, (ByteBuf) list.get(0), list);
+        assertEquals(1337, ((FBTest) list.get(1)).test());
+        assertEquals(42, ((FBTest) list.get(2)).test());
+
+        assertTrue(buf.release());
+        assertTrue(((ByteBuf) list.get(0)).release());
+    }
+
+    @Test
+    public void testUnsentBuilderIsRecycled() {
+        FlatBufferBuilderPool pool = new FlatBufferBuilderPool(PooledByteBufAllocator.DEFAULT, 4, 1024);
+        EmbeddedChannel channel = new EmbeddedChannel(new FlatBufferCodec<>(FBTest.class));
+
+        // the builder is not finished, so the encoder fails
+        ByteBufFlatBufferBuilder fbb = pool.acquire();
+        FBTest.createFBTest(fbb, 1337);
+        try {
+            channel.writeOutbound(fbb);
+            fail();
+        } catch (EncoderException e) {
+            // expected
+        }
+
+        assertEquals(0, fbb.refCnt());
+        assertSame(fbb, pool.acquire());
+
+        // dropped without being written, e.g. by a closed channel
+        ByteBufFlatBufferBuilder dropped = pool.acquire();
+        FBTest.finishFBTestBuffer(dropped, FBTest.createFBTest(dropped, 1337));
+        assertTrue(ReferenceCountUtil.release(dropped));
+        assertSame(dropped, pool.acquire());
+        channel.finish();
+    }
+
+    @Test
+    public void testDecodedTableOutlivesFrame() {
+        FlatBufferBuilder fbb = new FlatBufferBuilder(32);
+        FBTest.finishFBTestBuffer(fbb, FBTest.createFBTest(fbb, 1337));
+        byte[] data = fbb.sizedByteArray();
+        ByteBuf frame = PooledByteBufAllocator.DEFAULT.buffer(data.length).writeBytes(data);
+
+        EmbeddedChannel channel = new EmbeddedChannel(new FlatBufferCodec<>(FBTest.class));
+        channel.writeInbound(frame);
+        FBTest table = (FBTest) channel.readInbound();
+
+        // the frame has been released before the table was passed on and
+        // its memory is handed out again
+        assertEquals(0, frame.refCnt());
+        ByteBuf reused = PooledByteBufAllocator.DEFAULT.buffer(data.length);
+        reused.writeZero(data.length);
+
+        assertEquals(1337, table.test());
+        reused.release();
+        channel.finish();
+    }
+
+    @Test
+    public void testRetainedDecode() throws Exception {
+        FlatBufferBuilder fbb = new FlatBufferBuilder(32);
+        FBTest.finishFBTestBuffer(fbb, FBTest.createFBTest(fbb, 1337));
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.buffer();
+        buf.writeBytes(fbb.sizedByteArray());
+
+        FlatBufferCodec<FBTest> codec = new FlatBufferCodec<>(FBTest.class, true);
+        List<Object> list = new ArrayList<>();
+        codec.decode(null, buf, list);
+
+        // released by MessageToMessageCodec after decoding
+        buf.release();
+
+        @SuppressWarnings("unchecked")
+        FlatMessage<FBTest> msg = (FlatMessage<FBTest>) list.get(0);
+        assertEquals(1, buf.refCnt());
+        assertEquals(1337, msg.getTable().test());
+
+        assertTrue(msg.release());
+        assertEquals(0, buf.refCnt());
+
+        exception.expect(IllegalStateException.class);
+        msg.getTable();
+    }
+
     public static class TableMock extends Table {
     }
 
+    static class HiddenTest extends Table {
+        private static HiddenTest getRootAsHiddenTest(ByteBuffer _bb) {
+            _bb.order(ByteOrder.LITTLE_ENDIAN);
+            HiddenTest obj = new HiddenTest();
+            obj.bb_pos = _bb.getInt(_bb.position()) + _bb.position();
+            obj.bb = _bb;
+            return obj;
+        }
+
+        public int test() {
+            int o = __offset(4);
+            return o != 0 ? bb.getInt(o + bb_pos) : 0;
+        }
+    }
+
     public static class FBTest extends Table {
         public static FBTest getRootAsFBTest(ByteBuffer _bb) {
             return getRootAsFBTest(_bb, new FBTest());
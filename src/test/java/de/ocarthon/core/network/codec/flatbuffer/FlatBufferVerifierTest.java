@@ -0,0 +1,254 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.codec.flatbuffer;
+
+import com.google.flatbuffers.FlatBufferBuilder;
+import de.ocarthon.core.network.codec.flatbuffer.FlatBufferCodecTest.FBTest;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CorruptedFrameException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+
+public class FlatBufferVerifierTest {
+    private static final FlatBufferVerifier.TableVerifier FIELDS = (bb, tablePos) -> {
+        FlatBufferVerifier.verifyString(bb, tablePos, 6);
+        FlatBufferVerifier.verifyVector(bb, tablePos, 8, 4);
+    };
+
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
+    /**
+     * Table with an int, a string and an int vector. The int is read by
+     * {@link FBTest}
+     */
+    static byte[] build(int value, String text, int[] values) {
+        FlatBufferBuilder fbb = new FlatBufferBuilder(64);
+        int string = fbb.createString(text);
+
+        fbb.startVector(4, values.length, 4);
+        for (int i = values.length - 1; i >= 0; i--) {
+            fbb.addInt(values[i]);
+        }
+        int vector = fbb.endVector();
+
+        fbb.startObject(3);
+        fbb.addInt(0, value, 0);
+        fbb.addOffset(1, string, 0);
+        fbb.addOffset(2, vector, 0);
+        fbb.finish(fbb.endObject());
+        return fbb.sizedByteArray();
+    }
+
+    /**
+     * @return position of the data an offset field of the root table points to
+     */
+    private static int fieldTarget(ByteBuffer bb, int vtableOffset) {
+        int root = bb.getInt(0);
+        int vtable = root - bb.getInt(root);
+        int field = root + bb.getShort(vtable + vtableOffset);
+        return field + bb.getInt(field);
+    }
+
+    private static ByteBuffer wrap(byte[] bytes) {
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Test
+    public void testValid() {
+        byte[] bytes = build(1337, "test", new int[]{1, 2, 3});
+        int root = FlatBufferVerifier.verify(wrap(bytes), FIELDS);
+        assertEquals(wrap(bytes).getInt(0), root);
+    }
+
+    @Test
+    public void testRootOutsideFrame() {
+        ByteBuffer bb = wrap(build(1, "test", new int[0]));
+        bb.putInt(0, bb.capacity());
+
+        exception.expect(CorruptedFrameException.class);
+        FlatBufferVerifier.verify(bb, FlatBufferVerifier.STRUCTURE);
+    }
+
+    @Test
+    public void testTruncated() {
+        byte[] bytes = build(1, "test", new int[]{1, 2, 3});
+        ByteBuffer bb = wrap(bytes);
+        bb.limit(bytes.length - 8);
+
+        exception.expect(CorruptedFrameException.class);
+        FlatBufferVerifier.verify(bb, FIELDS);
+    }
+
+    @Test
+    public void testStringLength() {
+        ByteBuffer bb = wrap(build(1, "test", new int[0]));
+        bb.putInt(fieldTarget(bb, 6), 1000);
+
+        // the structure of the table is still valid
+        FlatBufferVerifier.verify(bb, FlatBufferVerifier.STRUCTURE);
+
+        exception.expect(CorruptedFrameException.class);
+        FlatBufferVerifier.verify(bb, FIELDS);
+    }
+
+    @Test
+    public void testVectorLength() {
+        ByteBuffer bb = wrap(build(1, "test", new int[]{1, 2}));
+        bb.putInt(fieldTarget(bb, 8), Integer.MAX_VALUE);
+
+        exception.expect(CorruptedFrameException.class);
+        FlatBufferVerifier.verify(bb, FIELDS);
+    }
+
+    @Test
+    public void testFieldWidth() {
+        ByteBuffer bb = wrap(build(1, "test", new int[0]));
+        int root = bb.getInt(0);
+        int vtable = root - bb.getInt(root);
+
+        // the table ends within the int field
+        bb.putShort(vtable + 2, (short) (bb.getShort(vtable + 4) + 1));
+        FlatBufferVerifier.verify(bb, FlatBufferVerifier.STRUCTURE);
+
+        exception.expect(CorruptedFrameException.class);
+        FlatBufferVerifier.verify(bb, (b, tablePos) -> FlatBufferVerifier.verifyField(b, tablePos, 4, 4));
+    }
+
+    @Test
+    public void testVectorOfStrings() {
+        FlatBufferBuilder fbb = new FlatBufferBuilder(64);
+        int[] strings = {fbb.createString("first"), fbb.createString("second")};
+        int vector = fbb.createVectorOfTables(strings);
+        fbb.startObject(1);
+        fbb.addOffset(0, vector, 0);
+        fbb.finish(fbb.endObject());
+        ByteBuffer bb = wrap(fbb.sizedByteArray());
+
+        FlatBufferVerifier.TableVerifier verifier = (b, tablePos) ->
+                assertEquals(2, FlatBufferVerifier.verifyVectorOfStrings(b, tablePos, 4));
+        FlatBufferVerifier.verify(bb, verifier);
+
+        // second string
+        int element = fieldTarget(bb, 4) + 8;
+        bb.putInt(element + bb.getInt(element), 1000);
+
+        exception.expect(CorruptedFrameException.class);
+        FlatBufferVerifier.verify(bb, verifier);
+    }
+
+    @Test
+    public void testVectorOfTables() {
+        FlatBufferBuilder fbb = new FlatBufferBuilder(64);
+        int[] tables = {FBTest.createFBTest(fbb, 1), FBTest.createFBTest(fbb, 2)};
+        int vector = fbb.createVectorOfTables(tables);
+        fbb.startObject(1);
+        fbb.addOffset(0, vector, 0);
+        fbb.finish(fbb.endObject());
+        ByteBuffer bb = wrap(fbb.sizedByteArray());
+
+        FlatBufferVerifier.TableVerifier verifier = (b, tablePos) -> assertEquals(2,
+                FlatBufferVerifier.verifyVectorOfTables(b, tablePos, 4,
+                        (t, pos) -> FlatBufferVerifier.verifyField(t, pos, 4, 4)));
+        FlatBufferVerifier.verify(bb, verifier);
+
+        // vtable of the second table outside of the frame
+        int element = fieldTarget(bb, 4) + 8;
+        bb.putInt(element + bb.getInt(element), -bb.capacity());
+
+        exception.expect(CorruptedFrameException.class);
+        FlatBufferVerifier.verify(bb, verifier);
+    }
+
+    /**
+     * Tables that point to the next table with their first field
+     */
+    private static ByteBuffer chain(int tables) {
+        FlatBufferBuilder fbb = new FlatBufferBuilder(64);
+        int table = 0;
+        for (int i = 0; i < tables; i++) {
+            fbb.startObject(1);
+            if (table != 0) {
+                fbb.addOffset(0, table, 0);
+            }
+            table = fbb.endObject();
+        }
+
+        fbb.finish(table);
+        return wrap(fbb.sizedByteArray());
+    }
+
+    @Test
+    public void testDepthLimit() {
+        FlatBufferVerifier.TableVerifier[] verifier = new FlatBufferVerifier.TableVerifier[1];
+        verifier[0] = (b, tablePos) -> FlatBufferVerifier.verifyTableField(b, tablePos, 4, verifier[0]);
+        FlatBufferVerifier.verify(chain(FlatBufferVerifier.MAX_DEPTH), verifier[0]);
+
+        exception.expect(CorruptedFrameException.class);
+        exception.expectMessage("nested");
+        FlatBufferVerifier.verify(chain(FlatBufferVerifier.MAX_DEPTH + 1), verifier[0]);
+    }
+
+    @Test
+    public void testTableLimit() {
+        // every level points twice to the same table of the next level
+        FlatBufferBuilder fbb = new FlatBufferBuilder(64);
+        fbb.startObject(1);
+        int table = fbb.endObject();
+        for (int i = 0; i < 20; i++) {
+            int vector = fbb.createVectorOfTables(new int[]{table, table});
+            fbb.startObject(1);
+            fbb.addOffset(0, vector, 0);
+            table = fbb.endObject();
+        }
+        fbb.finish(table);
+        ByteBuffer bb = wrap(fbb.sizedByteArray());
+
+        FlatBufferVerifier.TableVerifier[] verifier = new FlatBufferVerifier.TableVerifier[1];
+        verifier[0] = (b, tablePos) -> FlatBufferVerifier.verifyVectorOfTables(b, tablePos, 4, verifier[0]);
+
+        exception.expect(CorruptedFrameException.class);
+        exception.expectMessage("more than");
+        FlatBufferVerifier.verify(bb, verifier[0]);
+    }
+
+    @Test
+    public void testTrustedChannel() {
+        ByteBuffer bb = wrap(build(42, "test", new int[0]));
+        bb.putInt(fieldTarget(bb, 6), 1000);
+        byte[] bytes = bb.array();
+
+        FlatBufferCodec<FBTest> codec = new FlatBufferCodec<>(FBTest.class);
+        codec.setVerifier(FIELDS);
+        EmbeddedChannel channel = new EmbeddedChannel(codec);
+
+        FlatBufferVerifier.setTrusted(channel, true);
+        channel.writeInbound(Unpooled.wrappedBuffer(bytes));
+        assertEquals(42, ((FBTest) channel.readInbound()).test());
+
+        FlatBufferVerifier.setTrusted(channel, false);
+        exception.expect(CorruptedFrameException.class);
+        channel.writeInbound(Unpooled.wrappedBuffer(bytes));
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.codec.flatbuffer;
+
+import com.google.flatbuffers.FlatBufferBuilder;
+import de.ocarthon.core.network.codec.flatbuffer.FlatBufferCodecTest.FBTest;
+import de.ocarthon.core.network.codec.flatbuffer.FlatBufferCodecTest.HiddenTest;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.EncoderException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TypedFlatBufferCodecTest {
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
+    private static FlatBufferTypeRegistry registry() {
+        FlatBufferTypeRegistry registry = new FlatBufferTypeRegistry();
+        registry.register(1, FBTest.class);
+        registry.register(300, HiddenTest.class);
+        return registry;
+    }
+
+    private static FlatBufferBuilder build(FlatBufferBuilder fbb, int value) {
+        FBTest.finishFBTestBuffer(fbb, FBTest.createFBTest(fbb, value));
+        return fbb;
+    }
+
+    @Test
+    public void testEncodeDecode() throws Exception {
+        TypedFlatBufferCodec codec = new TypedFlatBufferCodec(registry());
+        List<Object> list = new ArrayList<>();
+
+        codec.encode(null, new TypedFlatBuffer(FBTest.class, build(new FlatBufferBuilder(32), 1337)), list);
+        // HiddenTest has the same layout as FBTest
+        codec.encode(null, new TypedFlatBuffer(HiddenTest.class,
+                build(new ByteBufFlatBufferBuilder(PooledByteBufAllocator.DEFAULT, 4), 42)), list);
+
+        ByteBuf first = (ByteBuf) list.get(0);
+        ByteBuf second = (ByteBuf) list.get(1);
+        assertEquals(1, first.getByte(first.readerIndex()));
+        assertEquals((byte) (300 | 0x80), second.getByte(second.readerIndex()));
+        assertEquals(300 >>> 7, second.getByte(second.readerIndex() + 1));
+
+        list.clear();
+        codec.decode(null, first, list);
+        codec.decode(null, second, list);
+        assertEquals(1337, ((FBTest) list.get(0)).test());
+        assertEquals(42, ((HiddenTest) list.get(1)).test());
+
+        first.release();
+        assertTrue(second.release());
+    }
+
+    @Test
+    public void testRetainedDecode() throws Exception {
+        TypedFlatBufferCodec codec = new TypedFlatBufferCodec(registry(), true);
+        List<Object> list = new ArrayList<>();
+
+        codec.encode(null, new TypedFlatBuffer(FBTest.class, build(new FlatBufferBuilder(32), 7)), list);
+        ByteBuf buf = (ByteBuf) list.remove(0);
+        codec.decode(null, buf, list);
+        buf.release();
+
+        FlatMessage<?> msg = (FlatMessage<?>) list.get(0);
+        assertEquals(7, ((FBTest) msg.getTable()).test());
+        assertTrue(msg.release());
+    }
+
+    @Test
+    public void testDecodedTableOutlivesFrame() {
+        EmbeddedChannel channel = new EmbeddedChannel(new TypedFlatBufferCodec(registry()));
+        channel.writeOutbound(new TypedFlatBuffer(FBTest.class, build(new FlatBufferBuilder(32), 7)));
+        ByteBuf encoded = (ByteBuf) channel.readOutbound();
+        ByteBuf frame = PooledByteBufAllocator.DEFAULT.buffer().writeBytes(encoded);
+        encoded.release();
+
+        channel.writeInbound(frame);
+        FBTest table = (FBTest) channel.readInbound();
+
+        // the released frame is handed out again
+        assertEquals(0, frame.refCnt());
+        ByteBuf reused = PooledByteBufAllocator.DEFAULT.buffer();
+        reused.writeZero(reused.capacity());
+
+        assertEquals(7, table.test());
+        reused.release();
+        channel.finish();
+    }
+
+    @Test
+    public void testUnregisteredType() throws Exception {
+        FlatBufferTypeRegistry registry = new FlatBufferTypeRegistry();
+        registry.register(1, FBTest.class);
+
+        exception.expect(IllegalArgumentException.class);
+        new TypedFlatBufferCodec(registry).encode(null,
+                new TypedFlatBuffer(HiddenTest.class, build(new FlatBufferBuilder(32), 1)), new ArrayList<>());
+    }
+
+    @Test
+    public void testUnregisteredTypeReleasesBuilder() {
+        FlatBufferBuilderPool pool = new FlatBufferBuilderPool(PooledByteBufAllocator.DEFAULT, 4, 1024);
+        EmbeddedChannel channel = new EmbeddedChannel(new TypedFlatBufferCodec(new FlatBufferTypeRegistry()));
+
+        ByteBufFlatBufferBuilder fbb = pool.acquire();
+        try {
+            channel.writeOutbound(new TypedFlatBuffer(FBTest.class, build(fbb, 7)));
+            fail();
+        } catch (EncoderException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+
+        assertEquals(0, fbb.refCnt());
+        assertSame(fbb, pool.acquire());
+        channel.finish();
+    }
+
+    @Test
+    public void testUnknownTypeId() throws Exception {
+        exception.expect(CorruptedFrameException.class);
+        new TypedFlatBufferCodec(registry()).decode(null, Unpooled.wrappedBuffer(new byte[]{2, 0, 0, 0}),
+                new ArrayList<>());
+    }
+
+    @Test
+    public void testDuplicateRegistration() {
+        FlatBufferTypeRegistry registry = registry();
+
+        exception.expect(IllegalArgumentException.class);
+        registry.register(2, FBTest.class);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.metrics;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TrafficMetricsHandlerTest {
+
+    @Test
+    public void testCounters() {
+        TrafficMetricsHandler handler = new TrafficMetricsHandler(2);
+        EmbeddedChannel channel1 = new EmbeddedChannel(handler);
+        EmbeddedChannel channel2 = new EmbeddedChannel(handler);
+
+        channel1.writeInbound(Unpooled.wrappedBuffer(new byte[10]));
+        channel1.writeInbound(Unpooled.wrappedBuffer(new byte[20]));
+        channel2.writeInbound(Unpooled.wrappedBuffer(new byte[30]));
+        channel2.writeOutbound(Unpooled.wrappedBuffer(new byte[40]));
+
+        TrafficSnapshot snapshot1 = handler.snapshot(channel1);
+        assertEquals(2, snapshot1.getMessagesIn());
+        assertEquals(34, snapshot1.getBytesIn());
+        assertEquals(0, snapshot1.getMessagesOut());
+
+        TrafficSnapshot total = handler.snapshot();
+        assertEquals(2, total.getConnections());
+        assertEquals(3, total.getMessagesIn());
+        assertEquals(66, total.getBytesIn());
+        assertEquals(1, total.getMessagesOut());
+        assertEquals(42, total.getBytesOut());
+        assertEquals(42, total.getFrameSizeOut().getMax());
+        assertEquals(1, total.getWriteLatency().getCount());
+
+        Map<?, TrafficSnapshot> snapshots = handler.getChannelSnapshots();
+        assertEquals(2, snapshots.size());
+
+        channel1.finish();
+        assertEquals(1, handler.snapshot().getConnections());
+        assertEquals(3, handler.snapshot().getMessagesIn());
+
+        ByteBuf buf;
+        while ((buf = channel1.readInbound()) != null) {
+            buf.release();
+        }
+    }
+
+    @Test
+    public void testChannelHistograms() {
+        TrafficMetricsHandler handler = new TrafficMetricsHandler(2);
+        EmbeddedChannel coarse = new EmbeddedChannel(handler);
+        handler.setChannelHistograms(true);
+        EmbeddedChannel detailed = new EmbeddedChannel(handler);
+
+        coarse.writeOutbound(Unpooled.wrappedBuffer(new byte[10]));
+        detailed.writeOutbound(Unpooled.wrappedBuffer(new byte[20]));
+
+        assertEquals(1, handler.snapshot(coarse).getMessagesOut());
+        assertEquals(0, handler.snapshot(coarse).getFrameSizeOut().getCount());
+        assertEquals(22, handler.snapshot(detailed).getFrameSizeOut().getMax());
+        assertEquals(2, handler.snapshot().getFrameSizeOut().getCount());
+
+        coarse.finish();
+        detailed.finish();
+    }
+
+    @Test
+    public void testRate() throws Exception {
+        TrafficMetricsHandler handler = new TrafficMetricsHandler(2);
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+        TrafficSnapshot before = handler.snapshot();
+        Thread.sleep(10);
+        channel.writeInbound(Unpooled.wrappedBuffer(new byte[1]));
+        TrafficSnapshot after = handler.snapshot();
+
+        assertTrue(after.getMessagesInRate(before) > 0);
+        assertEquals(0, after.getMessagesOutRate(before), 0);
+        channel.finish();
+    }
+}
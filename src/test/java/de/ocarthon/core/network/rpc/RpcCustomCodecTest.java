@@ -0,0 +1,109 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.rpc;
+
+import de.ocarthon.core.network.tcp.TCPClient;
+import de.ocarthon.core.network.tcp.TCPListener;
+import de.ocarthon.core.network.tcp.TCPServer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageCodec;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RpcCustomCodecTest {
+    private static final int PORT = 24331;
+
+    @Test
+    public void testCodecAfterRpc() throws Exception {
+        BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+
+        TCPServer server = new TCPServer(false);
+        new RpcServer(server, (ctx, request) -> CompletableFuture.completedFuture(request));
+        server.addCustomCodec(p -> p.addLast(new StringCodec()));
+        server.setListener(new Listener() {
+            @Override
+            public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+                ctx.writeAndFlush("echo " + message);
+            }
+        });
+        server.initBootstrap();
+        assertTrue(server.bind(PORT));
+
+        TCPClient client = new TCPClient(false);
+        RpcClient rpcClient = new RpcClient(client);
+        client.addCustomCodec(p -> p.addLast(new StringCodec()));
+        client.setListener(new Listener() {
+            @Override
+            public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+                received.add(message);
+            }
+        });
+        client.initBootstrap();
+
+        try {
+            assertTrue(client.connect("127.0.0.1", PORT));
+
+            ByteBuf response = rpcClient.call(Unpooled.copiedBuffer("call", CharsetUtil.UTF_8))
+                    .get(5, TimeUnit.SECONDS);
+            assertEquals("call", response.toString(CharsetUtil.UTF_8));
+            response.release();
+
+            client.getChannel().writeAndFlush("message");
+            assertEquals("echo message", received.poll(5, TimeUnit.SECONDS));
+        } finally {
+            client.release();
+            server.shutdown();
+        }
+    }
+
+    private static class StringCodec extends MessageToMessageCodec<ByteBuf, String> {
+        @Override
+        protected void encode(ChannelHandlerContext ctx, String msg, List<Object> out) throws Exception {
+            out.add(Unpooled.copiedBuffer(msg, CharsetUtil.UTF_8));
+        }
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+            out.add(msg.toString(CharsetUtil.UTF_8));
+        }
+    }
+
+    private abstract static class Listener implements TCPListener {
+        @Override
+        public void onClientConnect(ChannelHandlerContext ctx) {
+        }
+
+        @Override
+        public void onClientDisconnect(ChannelHandlerContext ctx) {
+        }
+
+        @Override
+        public void onExceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        }
+    }
+}
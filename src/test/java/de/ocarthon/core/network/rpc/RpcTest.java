@@ -0,0 +1,182 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.rpc;
+
+import de.ocarthon.core.network.tcp.TCPClient;
+import de.ocarthon.core.network.tcp.TCPListener;
+import de.ocarthon.core.network.tcp.TCPServer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.CharsetUtil;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RpcTest {
+    private static final int PORT = 24320;
+    private static final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor();
+    private static final List<String> messages = new ArrayList<>();
+    private static TCPServer server;
+    private static TCPClient client;
+    private static RpcClient rpcClient;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        server = new TCPServer(false);
+        new RpcServer(server, (ctx, request) -> {
+            String text = request.toString(CharsetUtil.UTF_8);
+            CompletableFuture<ByteBuf> response = new CompletableFuture<>();
+
+            if (text.equals("fail")) {
+                request.release();
+                response.completeExceptionally(new IllegalStateException("failed"));
+            } else if (text.equals("never")) {
+                request.release();
+            } else if (Integer.parseInt(text) % 2 == 0) {
+                // even requests are answered later to force out of order responses
+                executor.schedule(() -> response.complete(request), 20, TimeUnit.MILLISECONDS);
+            } else {
+                response.complete(request);
+            }
+
+            return response;
+        });
+        server.initBootstrap();
+        assertTrue(server.bind(PORT));
+
+        client = new TCPClient(false);
+        rpcClient = new RpcClient(client);
+        client.setListener(new TCPListener() {
+            @Override
+            public void onClientConnect(ChannelHandlerContext ctx) {
+            }
+
+            @Override
+            public void onClientDisconnect(ChannelHandlerContext ctx) {
+            }
+
+            @Override
+            public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+                synchronized (messages) {
+                    messages.add(((ByteBuf) message).toString(CharsetUtil.UTF_8));
+                    ((ByteBuf) message).release();
+                    messages.notifyAll();
+                }
+            }
+
+            @Override
+            public void onExceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            }
+        });
+        client.initBootstrap();
+        assertTrue(client.connect("127.0.0.1", PORT));
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        client.release();
+        server.shutdown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentCalls() throws Exception {
+        List<CompletableFuture<ByteBuf>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(rpcClient.call(buffer(Integer.toString(i))));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            ByteBuf response = futures.get(i).get(5, TimeUnit.SECONDS);
+            assertEquals(Integer.toString(i), response.toString(CharsetUtil.UTF_8));
+            response.release();
+        }
+
+        assertEquals(0, RpcHandler.get(client.getChannel()).getPendingCalls());
+    }
+
+    @Test
+    public void testRemoteError() throws Exception {
+        try {
+            rpcClient.call(buffer("fail")).get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RpcException);
+            assertEquals("failed", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        try {
+            rpcClient.call(buffer("never"), 50, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+
+        assertEquals(0, RpcHandler.get(client.getChannel()).getPendingCalls());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        CompletableFuture<ByteBuf> future = rpcClient.call(buffer("never"));
+        future.cancel(true);
+
+        try {
+            future.get();
+            fail();
+        } catch (CancellationException ignored) {
+        }
+
+        assertEquals(0, RpcHandler.get(client.getChannel()).getPendingCalls());
+    }
+
+    @Test
+    public void testPlainMessage() throws Exception {
+        Thread.sleep(100);
+        server.getClients().writeAndFlush(buffer("message"));
+
+        synchronized (messages) {
+            if (messages.isEmpty()) {
+                messages.wait(5000);
+            }
+        }
+
+        assertEquals("message", messages.get(0));
+    }
+
+    private static ByteBuf buffer(String text) {
+        return Unpooled.copiedBuffer(text, CharsetUtil.UTF_8);
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.shm;
+
+import de.ocarthon.core.network.tcp.TCPListener;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RingBufferTest {
+
+    @Test
+    public void testWrapAround() throws Exception {
+        File file = File.createTempFile("ring", ".buf");
+        file.deleteOnExit();
+
+        RingBuffer producer = RingBuffer.create(file, 64);
+        RingBuffer consumer = RingBuffer.open(file);
+        assertEquals(64, consumer.getCapacity());
+        assertNull(consumer.poll());
+
+        // 20 bytes + length field take 24 bytes, so the third frame wraps
+        for (int i = 0; i < 10; i++) {
+            assertTrue(producer.offer(frame(i, 20)));
+            assertTrue(producer.offer(frame(i + 100, 20)));
+
+            assertEquals(i, consumer.poll().getByte(0));
+            assertEquals(i + 100, consumer.poll().getByte(0));
+            assertNull(consumer.poll());
+        }
+
+        producer.close();
+        consumer.close();
+    }
+
+    @Test
+    public void testFull() throws Exception {
+        File file = File.createTempFile("ring", ".buf");
+        file.deleteOnExit();
+
+        RingBuffer producer = RingBuffer.create(file, 64);
+        RingBuffer consumer = RingBuffer.open(file);
+
+        assertTrue(producer.offer(frame(1, 28)));
+        assertTrue(producer.offer(frame(2, 28)));
+        assertFalse(producer.offer(frame(3, 1)));
+
+        assertEquals(1, consumer.poll().getByte(0));
+        assertTrue(producer.offer(frame(3, 1)));
+
+        assertFalse(producer.isClosed());
+        producer.markClosed();
+        assertTrue(consumer.isClosed());
+
+        producer.close();
+        consumer.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalCapacity() throws Exception {
+        File file = File.createTempFile("ring", ".buf");
+        file.deleteOnExit();
+        RingBuffer.create(file, 100);
+    }
+
+    @Test
+    public void testEndpoints() throws Exception {
+        File file = File.createTempFile("endpoint", "");
+        file.deleteOnExit();
+        new File(file.getPath() + ".up").deleteOnExit();
+        new File(file.getPath() + ".down").deleteOnExit();
+
+        BlockingQueue<String> received = new ArrayBlockingQueue<>(10);
+
+        SharedMemoryEndpoint server = SharedMemoryEndpoint.create(file.getPath(), 1024);
+        server.setListener(new Listener() {
+            @Override
+            public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+                ctx.writeAndFlush(message);
+            }
+        });
+
+        SharedMemoryEndpoint client = SharedMemoryEndpoint.open(file.getPath());
+        client.setListener(new Listener() {
+            @Override
+            public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+                received.add(((ByteBuf) message).toString(CharsetUtil.UTF_8));
+                ((ByteBuf) message).release();
+            }
+
+            @Override
+            public void onClientDisconnect(ChannelHandlerContext ctx) {
+                received.add("closed");
+            }
+        });
+
+        server.start("shm-server");
+        client.start("shm-client");
+
+        for (int i = 0; i < 5; i++) {
+            client.send(Unpooled.copiedBuffer("msg" + i, CharsetUtil.UTF_8));
+        }
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals("msg" + i, received.poll(5, TimeUnit.SECONDS));
+        }
+
+        server.close();
+        assertEquals("closed", received.poll(5, TimeUnit.SECONDS));
+        client.close();
+        assertFalse(client.isOpen());
+    }
+
+    @Test
+    public void testWritesFromOtherThreads() throws Exception {
+        File file = File.createTempFile("endpoint", "");
+        file.deleteOnExit();
+        new File(file.getPath() + ".up").deleteOnExit();
+        new File(file.getPath() + ".down").deleteOnExit();
+
+        int messages = 500;
+        BlockingQueue<String> received = new ArrayBlockingQueue<>(messages);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        // the listener answers from executor threads, the writes have to be
+        // handed over to the single producer of the ring buffer
+        SharedMemoryEndpoint server = SharedMemoryEndpoint.create(file.getPath(), 1024);
+        server.setListener(new Listener() {
+            @Override
+            public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+                executor.execute(() -> ctx.writeAndFlush(message));
+            }
+        });
+
+        SharedMemoryEndpoint client = SharedMemoryEndpoint.open(file.getPath());
+        client.setListener(new Listener() {
+            @Override
+            public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+                received.add(((ByteBuf) message).toString(CharsetUtil.UTF_8));
+                ((ByteBuf) message).release();
+            }
+        });
+
+        server.start("shm-server");
+        client.start("shm-client");
+
+        for (int i = 0; i < messages; i++) {
+            client.send(Unpooled.copiedBuffer("msg" + i, CharsetUtil.UTF_8));
+        }
+
+        Set<String> unique = new HashSet<>();
+        for (int i = 0; i < messages; i++) {
+            String msg = received.poll(5, TimeUnit.SECONDS);
+            assertTrue(msg != null && msg.startsWith("msg"));
+            unique.add(msg);
+        }
+        assertEquals(messages, unique.size());
+
+        executor.shutdown();
+        server.close();
+        client.close();
+    }
+
+    @Test
+    public void testInvalidHeader() throws Exception {
+        File file = File.createTempFile("ring", ".buf");
+        file.deleteOnExit();
+
+        // a file that has not been initialized yet
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(192 + 64);
+        }
+        assertOpenFails(file);
+
+        // the capacity does not match the length of the file
+        RingBuffer.create(file, 64).close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.writeInt(128);
+        }
+        assertOpenFails(file);
+    }
+
+    private static void assertOpenFails(File file) {
+        try {
+            RingBuffer.open(file).close();
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCorruptLength() throws Exception {
+        File file = File.createTempFile("ring", ".buf");
+        file.deleteOnExit();
+
+        RingBuffer producer = RingBuffer.create(file, 64);
+        RingBuffer consumer = RingBuffer.open(file);
+        assertTrue(producer.offer(frame(1, 20)));
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(192);
+            raf.writeInt(Integer.reverseBytes(1000));
+        }
+
+        try {
+            consumer.poll();
+            fail();
+        } catch (CorruptedFrameException e) {
+            // expected
+        }
+
+        producer.close();
+        consumer.close();
+    }
+
+    @Test
+    public void testPendingLimit() throws Exception {
+        File file = File.createTempFile("endpoint", "");
+        file.deleteOnExit();
+        new File(file.getPath() + ".up").deleteOnExit();
+        new File(file.getPath() + ".down").deleteOnExit();
+
+        BlockingQueue<ChannelHandlerContext> connected = new ArrayBlockingQueue<>(1);
+        SharedMemoryEndpoint server = SharedMemoryEndpoint.create(file.getPath(), 64);
+        server.setMaxPendingBytes(60);
+        server.setListener(new Listener() {
+            @Override
+            public void onClientConnect(ChannelHandlerContext ctx) {
+                connected.add(ctx);
+            }
+        });
+        server.start("shm-server");
+        ChannelHandlerContext ctx = connected.poll(5, TimeUnit.SECONDS);
+
+        // nobody reads, two frames fit into the ring buffer and three are kept
+        // the embedded channel does not allow to wait for its futures
+        CountDownLatch done = new CountDownLatch(10);
+        AtomicInteger failed = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            ctx.writeAndFlush(frame(i, 20)).addListener((ChannelFutureListener) f -> {
+                if (!f.isSuccess()) {
+                    failed.incrementAndGet();
+                }
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(5, failed.get());
+        assertFalse(server.isWritable());
+        server.close();
+    }
+
+    private static ByteBuf frame(int value, int length) {
+        ByteBuf buf = Unpooled.buffer(length);
+        buf.writeByte(value);
+        buf.writeZero(length - 1);
+        return buf;
+    }
+
+    private static class Listener implements TCPListener {
+        @Override
+        public void onClientConnect(ChannelHandlerContext ctx) {
+        }
+
+        @Override
+        public void onClientDisconnect(ChannelHandlerContext ctx) {
+        }
+
+        @Override
+        public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+        }
+
+        @Override
+        public void onExceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        }
+    }
+}
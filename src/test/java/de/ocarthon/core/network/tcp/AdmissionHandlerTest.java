@@ -0,0 +1,149 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.tcp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdmissionHandlerTest {
+    private static final int PORT = 24325;
+
+    @Test
+    public void testRateLimitPausesReading() {
+        AdmissionHandler handler = new AdmissionHandler(0, 0, 5, 0);
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+        for (int i = 0; i < 5; i++) {
+            channel.writeInbound(Unpooled.wrappedBuffer(new byte[10]));
+        }
+        assertTrue(channel.config().isAutoRead());
+
+        channel.writeInbound(Unpooled.wrappedBuffer(new byte[10]));
+        assertFalse(channel.config().isAutoRead());
+        assertEquals(1, handler.getThrottledReads());
+
+        // nothing is dropped
+        for (int i = 0; i < 6; i++) {
+            ((ByteBuf) channel.readInbound()).release();
+        }
+
+        channel.finish();
+    }
+
+    @Test
+    public void testPauseCauses() {
+        EmbeddedChannel channel = new EmbeddedChannel(new AdmissionHandler(0, 0, 0, 0));
+
+        ReadPause.pause(channel, ReadPause.LISTENER_QUEUE);
+        ReadPause.pause(channel, ReadPause.ADMISSION);
+        assertFalse(channel.config().isAutoRead());
+
+        // the end of the rate limit must not resume a full listener queue
+        ReadPause.resume(channel, ReadPause.ADMISSION);
+        assertFalse(channel.config().isAutoRead());
+        assertTrue(ReadPause.isPaused(channel, ReadPause.LISTENER_QUEUE));
+
+        ReadPause.resume(channel, ReadPause.LISTENER_QUEUE);
+        assertTrue(channel.config().isAutoRead());
+
+        channel.finish();
+    }
+
+    @Test
+    public void testConnectionLimitPerAddress() throws Exception {
+        AtomicInteger connected = new AtomicInteger();
+
+        TCPServer server = new TCPServer(false);
+        AdmissionHandler handler = server.setAdmissionControl(10, 1, 0, 0);
+        server.setListener(new TCPListener() {
+            @Override
+            public void onClientConnect(ChannelHandlerContext ctx) {
+                connected.incrementAndGet();
+            }
+
+            @Override
+            public void onClientDisconnect(ChannelHandlerContext ctx) {
+            }
+
+            @Override
+            public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+            }
+
+            @Override
+            public void onExceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            }
+        });
+        server.initBootstrap();
+        assertTrue(server.bind(PORT));
+
+        TCPClient client1 = new TCPClient(false);
+        client1.initBootstrap();
+        assertTrue(client1.connect("127.0.0.1", PORT));
+
+        // the connections are accepted on different event loops, client1
+        // has to be admitted before client2 connects
+        awaitConnections(handler, 1);
+
+        TCPClient client2 = new TCPClient(false);
+        client2.initBootstrap();
+        assertTrue(client2.connect("127.0.0.1", PORT));
+        client2.getChannel().closeFuture().await(5000);
+
+        assertFalse(client2.getChannel().isActive());
+        assertTrue(client1.getChannel().isActive());
+        awaitValue(connected, 1);
+        assertEquals(1, connected.get());
+        assertEquals(1, handler.getRejectedConnections());
+        assertEquals(1, handler.getConnections(InetAddress.getByName("127.0.0.1")));
+
+        client1.release();
+        client2.release();
+        server.shutdown();
+        awaitConnections(handler, 0);
+        assertEquals(0, handler.getConnections());
+    }
+
+    private static void awaitConnections(AdmissionHandler handler, int connections)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (handler.getConnections() != connections && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static void awaitValue(AtomicInteger value, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (value.get() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeLimit() {
+        new AdmissionHandler(-1, 0, 0, 0);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.tcp;
+
+import de.ocarthon.core.network.EventLoopResources;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.epoll.Epoll;
+import io.netty.util.CharsetUtil;
+import io.netty.util.internal.PlatformDependent;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DomainSocketTest {
+
+    @Test
+    public void testEcho() throws Exception {
+        // the native transport needs sun.misc.Unsafe
+        Assume.assumeTrue(Epoll.isAvailable() && PlatformDependent.hasUnsafe());
+
+        File socket = new File(System.getProperty("java.io.tmpdir"),
+                "ocarthon-" + System.nanoTime() + ".sock");
+        BlockingQueue<String> received = new ArrayBlockingQueue<>(1);
+
+        TCPServer server = new TCPServer(false);
+        server.setListener(new TCPListener() {
+            @Override
+            public void onClientConnect(ChannelHandlerContext ctx) {
+            }
+
+            @Override
+            public void onClientDisconnect(ChannelHandlerContext ctx) {
+            }
+
+            @Override
+            public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+                ctx.writeAndFlush(message);
+            }
+
+            @Override
+            public void onExceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            }
+        });
+        server.initBootstrap();
+        assertTrue(server.bindDomainSocket(socket.getPath()));
+
+        TCPClient client = new TCPClient(false);
+        client.setListener(new TCPListener() {
+            @Override
+            public void onClientConnect(ChannelHandlerContext ctx) {
+            }
+
+            @Override
+            public void onClientDisconnect(ChannelHandlerContext ctx) {
+            }
+
+            @Override
+            public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+                received.add(((ByteBuf) message).toString(CharsetUtil.UTF_8));
+                ((ByteBuf) message).release();
+            }
+
+            @Override
+            public void onExceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            }
+        });
+        client.initBootstrap();
+        assertTrue(client.connectDomainSocket(socket.getPath()));
+
+        client.send(Unpooled.copiedBuffer("ping", CharsetUtil.UTF_8));
+        assertEquals("ping", received.poll(5, TimeUnit.SECONDS));
+        assertEquals(1, server.getClients().size());
+
+        client.release();
+        server.shutdown();
+        assertFalse(socket.exists());
+    }
+
+    @Test
+    public void testReconnect() throws Exception {
+        Assume.assumeTrue(Epoll.isAvailable() && PlatformDependent.hasUnsafe());
+
+        File socket = new File(System.getProperty("java.io.tmpdir"),
+                "ocarthon-" + System.nanoTime() + ".sock");
+        Semaphore connects = new Semaphore(0);
+        EventLoopResources resources = new EventLoopResources(1, 2, "domain-test", true);
+
+        TCPServer server = new TCPServer(false, resources);
+        server.setListener(new TCPListener() {
+            @Override
+            public void onClientConnect(ChannelHandlerContext ctx) {
+                connects.release();
+            }
+
+            @Override
+            public void onClientDisconnect(ChannelHandlerContext ctx) {
+            }
+
+            @Override
+            public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+                ((ByteBuf) message).release();
+            }
+
+            @Override
+            public void onExceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            }
+        });
+        server.initBootstrap();
+        assertTrue(server.bindDomainSocket(socket.getPath()));
+
+        TCPClient client = new TCPClient(false, resources);
+        client.enableAutoReconnect(new ReconnectPolicy(10, 50, TimeUnit.MILLISECONDS), 0);
+        client.initBootstrap();
+        assertTrue(client.connectDomainSocket(socket.getPath()));
+        assertTrue(connects.tryAcquire(5, TimeUnit.SECONDS));
+
+        // the client has to reconnect over the domain socket
+        server.getClients().close().awaitUninterruptibly();
+        assertTrue(connects.tryAcquire(5, TimeUnit.SECONDS));
+        assertTrue(resources.getEpollWorkerGroup() == client.getChannel().eventLoop().parent());
+
+        client.release();
+        server.shutdown();
+        resources.shutdownGracefully().awaitUninterruptibly();
+    }
+}
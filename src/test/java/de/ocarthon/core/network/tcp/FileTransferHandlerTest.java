@@ -0,0 +1,153 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.tcp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.epoll.Epoll;
+import io.netty.util.internal.PlatformDependent;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FileTransferHandlerTest {
+    private static final int PORT = 24327;
+
+    @Test
+    public void testPlaintext() throws Exception {
+        testTransfer(false, false);
+    }
+
+    @Test
+    public void testTls() throws Exception {
+        testTransfer(true, false);
+    }
+
+    @Test
+    public void testPlaintextEpoll() throws Exception {
+        // the native transport needs sun.misc.Unsafe
+        Assume.assumeTrue(Epoll.isAvailable() && PlatformDependent.hasUnsafe());
+        testTransfer(false, true);
+    }
+
+    private void testTransfer(boolean useTls, boolean epoll) throws Exception {
+        byte[] data = new byte[300000];
+        new Random(38).nextBytes(data);
+        File file = File.createTempFile("transfer", ".bin");
+        file.deleteOnExit();
+        Files.write(file.toPath(), data);
+
+        BlockingQueue<Channel> clients = new LinkedBlockingQueue<>();
+        TCPServer server = new TCPServer(useTls);
+        server.enableFileTransfer();
+        server.setListener(new Listener() {
+            @Override
+            public void onClientConnect(ChannelHandlerContext ctx) {
+                clients.add(ctx.channel());
+            }
+        });
+        server.initBootstrap();
+        if (epoll) {
+            assertTrue(server.bindReusePort("127.0.0.1", PORT, 1));
+        } else {
+            assertTrue(server.bind(PORT));
+        }
+
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+        CountDownLatch done = new CountDownLatch(2);
+        long[] firstOffset = {-1};
+
+        TCPClient client = new TCPClient(useTls);
+        client.enableFileTransfer();
+        client.setListener(new Listener() {
+            @Override
+            public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+                if (message instanceof FileChunk) {
+                    FileChunk chunk = (FileChunk) message;
+                    assertEquals(data.length, chunk.getFileLength());
+
+                    if (firstOffset[0] < 0) {
+                        firstOffset[0] = chunk.getOffset();
+                    }
+                    assertEquals(firstOffset[0] + received.size(), chunk.getOffset());
+
+                    byte[] bytes = new byte[chunk.content().readableBytes()];
+                    chunk.content().readBytes(bytes);
+                    received.write(bytes, 0, bytes.length);
+
+                    if (chunk.isLast()) {
+                        done.countDown();
+                    }
+                    chunk.release();
+                } else {
+                    messages.add(((ByteBuf) message).toString(StandardCharsets.UTF_8));
+                    ((ByteBuf) message).release();
+                    done.countDown();
+                }
+            }
+        });
+        client.initBootstrap();
+        assertTrue(client.connect("127.0.0.1", PORT));
+
+        Channel channel = clients.poll(5, TimeUnit.SECONDS);
+        assertTrue(server.sendFile(channel, 1, file, 100000).await(5000));
+        channel.writeAndFlush(Unpooled.copiedBuffer("message".getBytes()));
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(100000, firstOffset[0]);
+        assertArrayEquals(Arrays.copyOfRange(data, 100000, data.length), received.toByteArray());
+        assertEquals("message", messages.poll());
+
+        client.release();
+        server.shutdown();
+    }
+
+    private static class Listener implements TCPListener {
+        @Override
+        public void onClientConnect(ChannelHandlerContext ctx) {
+        }
+
+        @Override
+        public void onClientDisconnect(ChannelHandlerContext ctx) {
+        }
+
+        @Override
+        public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+        }
+
+        @Override
+        public void onExceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.tcp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DecoderException;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameCompressionCodecTest {
+    private static final String MESSAGE = "{\"type\":\"position\",\"x\":12,\"y\":7,\"z\":3}";
+    private static final byte[] DICTIONARY =
+            "{\"type\":\"position\",\"x\":,\"y\":,\"z\":}".getBytes(CharsetUtil.UTF_8);
+
+    @Test
+    public void testSmallFrameIsNotCompressed() {
+        EmbeddedChannel channel = new EmbeddedChannel(new FrameCompressionCodec(100, null));
+        channel.writeOutbound(Unpooled.copiedBuffer(MESSAGE, CharsetUtil.UTF_8));
+
+        ByteBuf frame = (ByteBuf) channel.readOutbound();
+        assertEquals(MESSAGE.length() + 1, frame.readableBytes());
+        assertEquals(0, frame.getByte(0));
+
+        assertEquals(MESSAGE, roundTrip(new FrameCompressionCodec(100, null), frame));
+    }
+
+    @Test
+    public void testLargeFrameIsCompressed() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            builder.append(MESSAGE);
+        }
+        String message = builder.toString();
+
+        EmbeddedChannel channel = new EmbeddedChannel(new FrameCompressionCodec(100, null));
+        channel.writeOutbound(Unpooled.copiedBuffer(message, CharsetUtil.UTF_8));
+
+        ByteBuf frame = (ByteBuf) channel.readOutbound();
+        assertEquals(1, frame.getByte(0));
+        assertTrue(frame.readableBytes() < message.length() / 10);
+
+        assertEquals(message, roundTrip(new FrameCompressionCodec(100, null), frame));
+    }
+
+    @Test
+    public void testIncompressibleFrameIsSentRaw() {
+        byte[] data = new byte[1000];
+        new Random(42).nextBytes(data);
+
+        EmbeddedChannel channel = new EmbeddedChannel(new FrameCompressionCodec(0, null));
+        channel.writeOutbound(Unpooled.wrappedBuffer(data));
+
+        ByteBuf frame = (ByteBuf) channel.readOutbound();
+        assertEquals(0, frame.getByte(0));
+        assertEquals(data.length + 1, frame.readableBytes());
+        frame.release();
+    }
+
+    @Test
+    public void testDictionary() {
+        EmbeddedChannel plain = new EmbeddedChannel(new FrameCompressionCodec(0, null));
+        plain.writeOutbound(Unpooled.copiedBuffer(MESSAGE, CharsetUtil.UTF_8));
+        ByteBuf plainFrame = (ByteBuf) plain.readOutbound();
+
+        EmbeddedChannel channel = new EmbeddedChannel(new FrameCompressionCodec(0, DICTIONARY));
+        channel.writeOutbound(Unpooled.copiedBuffer(MESSAGE, CharsetUtil.UTF_8));
+        ByteBuf frame = (ByteBuf) channel.readOutbound();
+
+        assertEquals(1, frame.getByte(0));
+        assertTrue(frame.readableBytes() < plainFrame.readableBytes());
+        plainFrame.release();
+
+        assertEquals(MESSAGE, roundTrip(new FrameCompressionCodec(0, DICTIONARY), frame));
+    }
+
+    @Test
+    public void testCodecIsReused() {
+        EmbeddedChannel sender = new EmbeddedChannel(new FrameCompressionCodec(0, DICTIONARY));
+        EmbeddedChannel receiver = new EmbeddedChannel(new FrameCompressionCodec(0, DICTIONARY));
+
+        for (int i = 0; i < 100; i++) {
+            String message = MESSAGE + i;
+            sender.writeOutbound(Unpooled.copiedBuffer(message, CharsetUtil.UTF_8));
+            receiver.writeInbound((Object) sender.readOutbound());
+
+            ByteBuf received = (ByteBuf) receiver.readInbound();
+            assertEquals(message, received.toString(CharsetUtil.UTF_8));
+            received.release();
+        }
+
+        sender.finish();
+        receiver.finish();
+    }
+
+    @Test(expected = DecoderException.class)
+    public void testWrongDictionary() {
+        EmbeddedChannel channel = new EmbeddedChannel(new FrameCompressionCodec(0, DICTIONARY));
+        channel.writeOutbound(Unpooled.copiedBuffer(MESSAGE, CharsetUtil.UTF_8));
+
+        roundTrip(new FrameCompressionCodec(0, "other".getBytes(CharsetUtil.UTF_8)),
+                (ByteBuf) channel.readOutbound());
+    }
+
+    @Test(expected = DecoderException.class)
+    public void testUnknownFlag() {
+        EmbeddedChannel channel = new EmbeddedChannel(new FrameCompressionCodec(0, null));
+        channel.writeInbound(Unpooled.wrappedBuffer(new byte[]{7, 1, 2}));
+    }
+
+    private static String roundTrip(FrameCompressionCodec codec, ByteBuf frame) {
+        EmbeddedChannel channel = new EmbeddedChannel(codec);
+        channel.writeInbound(frame);
+
+        ByteBuf message = (ByteBuf) channel.readInbound();
+        String result = message.toString(CharsetUtil.UTF_8);
+        message.release();
+        return result;
+    }
+}
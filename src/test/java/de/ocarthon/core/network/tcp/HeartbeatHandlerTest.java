@@ -0,0 +1,162 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.tcp;
+
+import de.ocarthon.core.network.metrics.TrafficMetricsHandler;
+import de.ocarthon.core.network.metrics.TrafficSnapshot;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.timeout.IdleStateEvent;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HeartbeatHandlerTest {
+    private static final int PORT = 24323;
+
+    @Test
+    public void testPingIsConsumed() {
+        EmbeddedChannel channel = new EmbeddedChannel(HeartbeatHandler.INSTANCE);
+
+        assertFalse(channel.writeInbound(Unpooled.EMPTY_BUFFER));
+        assertTrue(channel.writeInbound(Unpooled.wrappedBuffer(new byte[]{1})));
+        ByteBuf buf = channel.readInbound();
+        assertEquals(1, buf.readableBytes());
+        buf.release();
+
+        channel.finish();
+    }
+
+    @Test
+    public void testWriterIdleSendsPing() {
+        EmbeddedChannel channel = new EmbeddedChannel(HeartbeatHandler.INSTANCE);
+
+        channel.pipeline().fireUserEventTriggered(IdleStateEvent.FIRST_WRITER_IDLE_STATE_EVENT);
+        ByteBuf ping = channel.readOutbound();
+        assertEquals(0, ping.readableBytes());
+        assertTrue(channel.isOpen());
+
+        channel.pipeline().fireUserEventTriggered(IdleStateEvent.FIRST_READER_IDLE_STATE_EVENT);
+        assertFalse(channel.isOpen());
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void testReaderIdleWhilePaused() {
+        EmbeddedChannel channel = new EmbeddedChannel(HeartbeatHandler.INSTANCE);
+
+        ReadPause.pause(channel, ReadPause.ADMISSION);
+        channel.pipeline().fireUserEventTriggered(IdleStateEvent.FIRST_READER_IDLE_STATE_EVENT);
+        assertTrue(channel.isOpen());
+
+        // the timeout starts over after reading has been resumed
+        ReadPause.resume(channel, ReadPause.ADMISSION);
+        channel.pipeline().fireUserEventTriggered(IdleStateEvent.READER_IDLE_STATE_EVENT);
+        assertTrue(channel.isOpen());
+
+        channel.pipeline().fireUserEventTriggered(IdleStateEvent.READER_IDLE_STATE_EVENT);
+        assertFalse(channel.isOpen());
+    }
+
+    @Test
+    public void testServerClosesIdleClient() throws Exception {
+        CountDownLatch idle = new CountDownLatch(1);
+
+        TCPServer server = new TCPServer(false);
+        server.setHeartbeat(200, 0, TimeUnit.MILLISECONDS);
+        server.setListener(new TCPListener() {
+            @Override
+            public void onClientConnect(ChannelHandlerContext ctx) {
+            }
+
+            @Override
+            public void onClientDisconnect(ChannelHandlerContext ctx) {
+            }
+
+            @Override
+            public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+            }
+
+            @Override
+            public void onExceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            }
+
+            @Override
+            public void onClientIdle(ChannelHandlerContext ctx) {
+                idle.countDown();
+            }
+        });
+        server.initBootstrap();
+        assertTrue(server.bind(PORT));
+
+        TCPClient pingingClient = new TCPClient(false);
+        pingingClient.setHeartbeat(0, 50, TimeUnit.MILLISECONDS);
+        pingingClient.initBootstrap();
+        assertTrue(pingingClient.connect("127.0.0.1", PORT));
+
+        TCPClient silentClient = new TCPClient(false);
+        silentClient.initBootstrap();
+        assertTrue(silentClient.connect("127.0.0.1", PORT));
+
+        assertTrue(idle.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+
+        assertFalse(silentClient.getChannel().isActive());
+        assertTrue(pingingClient.getChannel().isActive());
+        assertEquals(1, server.getClients().size());
+
+        pingingClient.release();
+        silentClient.release();
+        server.shutdown();
+    }
+
+    @Test
+    public void testPingsAreCounted() throws Exception {
+        TCPServer server = new TCPServer(false);
+        server.setHeartbeat(0, 50, TimeUnit.MILLISECONDS);
+        TrafficMetricsHandler metrics = server.enableMetrics();
+        server.initBootstrap();
+        assertTrue(server.bind(PORT));
+
+        TCPClient client = new TCPClient(false);
+        client.setHeartbeat(0, 50, TimeUnit.MILLISECONDS);
+        client.initBootstrap();
+        assertTrue(client.connect("127.0.0.1", PORT));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        TrafficSnapshot snapshot = metrics.snapshot();
+        while ((snapshot.getMessagesIn() == 0 || snapshot.getMessagesOut() == 0)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            snapshot = metrics.snapshot();
+        }
+
+        assertTrue(snapshot.getMessagesIn() > 0);
+        assertTrue(snapshot.getMessagesOut() > 0);
+
+        client.release();
+        server.shutdown();
+    }
+}
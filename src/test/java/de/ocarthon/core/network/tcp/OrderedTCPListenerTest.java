@@ -0,0 +1,111 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.tcp;
+
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OrderedTCPListenerTest {
+
+    @Test
+    public void testOrderAndBackpressure() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CountDownLatch blocked = new CountDownLatch(1);
+        List<Integer> received = new ArrayList<>();
+
+        OrderedTCPListener listener = new OrderedTCPListener(new TCPListener() {
+            @Override
+            public void onClientConnect(ChannelHandlerContext ctx) {
+            }
+
+            @Override
+            public void onClientDisconnect(ChannelHandlerContext ctx) {
+            }
+
+            @Override
+            public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                synchronized (received) {
+                    received.add((Integer) message);
+                    received.notifyAll();
+                }
+            }
+
+            @Override
+            public void onExceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            }
+        }, executor, 10);
+
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelHandlerAdapter() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+                listener.onMessageReceived(ctx, msg);
+            }
+        });
+
+        for (int i = 0; i < 10; i++) {
+            channel.writeInbound(i);
+        }
+
+        assertEquals(10, listener.getQueueDepth(channel));
+        assertFalse(channel.config().isAutoRead());
+
+        blocked.countDown();
+
+        synchronized (received) {
+            long end = System.currentTimeMillis() + 5000;
+            while (received.size() < 10 && System.currentTimeMillis() < end) {
+                received.wait(100);
+            }
+        }
+
+        assertEquals(10, received.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, (int) received.get(i));
+        }
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+
+        assertEquals(0, listener.getQueueDepth(channel));
+        assertTrue(channel.config().isAutoRead());
+        channel.finish();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalQueueDepth() {
+        new OrderedTCPListener(null, Runnable::run, 0);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.tcp;
+
+import io.netty.channel.epoll.Epoll;
+import io.netty.util.internal.PlatformDependent;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.net.Socket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReusePortTest {
+    private static final int PORT = 24329;
+
+    @Test
+    public void testAcceptors() throws Exception {
+        // the native transport needs sun.misc.Unsafe
+        Assume.assumeTrue(Epoll.isAvailable() && PlatformDependent.hasUnsafe());
+
+        TCPServer server = new TCPServer(false);
+        server.initBootstrap();
+        assertTrue(server.bindReusePort("127.0.0.1", PORT, 4));
+        assertEquals(4, server.getReusePortChannels().size());
+
+        Socket[] sockets = new Socket[20];
+        for (int i = 0; i < sockets.length; i++) {
+            sockets[i] = new Socket("127.0.0.1", PORT);
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getClients().size() < sockets.length
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(sockets.length, server.getClients().size());
+
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        server.shutdown();
+        assertTrue(server.getReusePortChannels().isEmpty());
+    }
+}
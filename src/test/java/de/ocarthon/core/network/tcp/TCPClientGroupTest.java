@@ -0,0 +1,111 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.tcp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TCPClientGroupTest {
+    private static final int PORT = 24322;
+
+    @Test
+    public void testNoConnections() {
+        TCPClientGroup group = new TCPClientGroup(false);
+        assertNull(group.next());
+        assertFalse(group.send(Unpooled.buffer()));
+        group.release();
+    }
+
+    @Test
+    public void testBalancing() throws Exception {
+        for (TCPClientGroup.Balancing balancing : TCPClientGroup.Balancing.values()) {
+            testBalancing(balancing);
+        }
+    }
+
+    private void testBalancing(TCPClientGroup.Balancing balancing) throws Exception {
+        Map<Channel, AtomicInteger> received = new ConcurrentHashMap<>();
+        AtomicInteger total = new AtomicInteger();
+
+        TCPServer server = new TCPServer(false);
+        server.setListener(new TCPListener() {
+            @Override
+            public void onClientConnect(ChannelHandlerContext ctx) {
+                received.put(ctx.channel(), new AtomicInteger());
+            }
+
+            @Override
+            public void onClientDisconnect(ChannelHandlerContext ctx) {
+            }
+
+            @Override
+            public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+                ((ByteBuf) message).release();
+                received.get(ctx.channel()).incrementAndGet();
+                total.incrementAndGet();
+            }
+
+            @Override
+            public void onExceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            }
+        });
+        server.initBootstrap();
+        assertTrue(server.bind(PORT));
+
+        TCPClientGroup group = new TCPClientGroup(null, false, balancing);
+        group.setReconnectPolicy(new ReconnectPolicy(50, 100, TimeUnit.MILLISECONDS));
+        group.addEndpoint("127.0.0.1", PORT, 4);
+        group.connect();
+
+        long end = System.currentTimeMillis() + 5000;
+        while (group.getHealthyConnections() < 4 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(4, group.getHealthyConnections());
+
+        for (int i = 0; i < 400; i++) {
+            assertTrue(group.send(Unpooled.wrappedBuffer(new byte[]{1})));
+        }
+
+        end = System.currentTimeMillis() + 5000;
+        while (total.get() < 400 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(400, total.get());
+        assertEquals(4, received.size());
+        for (AtomicInteger count : received.values()) {
+            assertTrue(count.get() > 0);
+        }
+
+        group.release();
+        server.shutdown();
+    }
+}
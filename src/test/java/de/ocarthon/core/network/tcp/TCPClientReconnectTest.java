@@ -0,0 +1,134 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.tcp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TCPClientReconnectTest {
+    private static final int PORT = 24321;
+
+    @Test
+    public void testReconnectPolicy() {
+        ReconnectPolicy policy = new ReconnectPolicy(100, 1000, TimeUnit.MILLISECONDS);
+
+        for (int i = 0; i < 100; i++) {
+            long delay = policy.getDelay(0);
+            assertTrue(delay >= 50 && delay <= 100);
+
+            delay = policy.getDelay(2);
+            assertTrue(delay >= 200 && delay <= 400);
+
+            delay = policy.getDelay(70);
+            assertTrue(delay >= 500 && delay <= 1000);
+        }
+    }
+
+    @Test
+    public void testReconnectPolicySubMillisecond() {
+        ReconnectPolicy policy = new ReconnectPolicy(500, 800, TimeUnit.MICROSECONDS);
+        assertEquals(1, policy.getInitialDelay(TimeUnit.MILLISECONDS));
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(policy.getDelay(0) >= 1);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReconnectPolicyIllegalArgument() {
+        new ReconnectPolicy(100, 10, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testReconnectAndReplay() throws Exception {
+        List<String> received = new ArrayList<>();
+
+        TCPServer server = new TCPServer(false);
+        server.initBootstrap();
+        assertTrue(server.bind(PORT));
+
+        TCPClient client = new TCPClient(false);
+        client.enableAutoReconnect(new ReconnectPolicy(50, 200, TimeUnit.MILLISECONDS), 2);
+        client.initBootstrap();
+        assertTrue(client.connect("127.0.0.1", PORT));
+
+        server.shutdown();
+        Thread.sleep(100);
+        assertFalse(client.getChannel().isActive());
+
+        assertTrue(client.send(buffer("1")));
+        assertTrue(client.send(buffer("2")));
+        assertFalse(client.send(buffer("3")));
+        assertEquals(2, client.getBufferedMessages());
+
+        server = new TCPServer(false);
+        server.setListener(new TCPListener() {
+            @Override
+            public void onClientConnect(ChannelHandlerContext ctx) {
+            }
+
+            @Override
+            public void onClientDisconnect(ChannelHandlerContext ctx) {
+            }
+
+            @Override
+            public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+                synchronized (received) {
+                    received.add(((ByteBuf) message).toString(CharsetUtil.UTF_8));
+                    ((ByteBuf) message).release();
+                    received.notifyAll();
+                }
+            }
+
+            @Override
+            public void onExceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            }
+        });
+        server.initBootstrap();
+        assertTrue(server.bind(PORT));
+
+        synchronized (received) {
+            long end = System.currentTimeMillis() + 5000;
+            while (received.size() < 2 && System.currentTimeMillis() < end) {
+                received.wait(100);
+            }
+        }
+
+        assertEquals(2, received.size());
+        assertEquals("1", received.get(0));
+        assertEquals("2", received.get(1));
+        assertEquals(0, client.getBufferedMessages());
+
+        client.release();
+        server.shutdown();
+    }
+
+    private static ByteBuf buffer(String text) {
+        return Unpooled.copiedBuffer(text, CharsetUtil.UTF_8);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.tcp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.Future;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TCPServerDrainTest {
+    private static final int PORT = 24330;
+    private static final int CLIENTS = 3;
+    private static final int MESSAGES = 200;
+
+    @Test
+    public void testDrain() throws Exception {
+        TCPServer server = new TCPServer(false);
+        server.setListener(new Listener());
+        server.initBootstrap();
+        assertTrue(server.bind(PORT));
+
+        AtomicInteger received = new AtomicInteger();
+        AtomicInteger goAways = new AtomicInteger();
+        ConcurrentLinkedQueue<Long> disconnects = new ConcurrentLinkedQueue<>();
+        CountDownLatch closed = new CountDownLatch(CLIENTS);
+        List<TCPClient> clients = new ArrayList<>();
+
+        for (int i = 0; i < CLIENTS; i++) {
+            TCPClient client = new TCPClient(false);
+            client.setListener(new Listener() {
+                @Override
+                public void onClientDisconnect(ChannelHandlerContext ctx) {
+                    disconnects.add(System.nanoTime());
+                    closed.countDown();
+                }
+
+                @Override
+                public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+                    if (((ByteBuf) message).toString(CharsetUtil.UTF_8).equals("bye")) {
+                        goAways.incrementAndGet();
+                    } else {
+                        received.incrementAndGet();
+                    }
+                    ((ByteBuf) message).release();
+                }
+            });
+            client.initBootstrap();
+            assertTrue(client.connect("127.0.0.1", PORT));
+            clients.add(client);
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getClients().size() < CLIENTS && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        for (Channel channel : server.getClients()) {
+            for (int i = 0; i < MESSAGES; i++) {
+                channel.write(Unpooled.wrappedBuffer(new byte[1000]));
+            }
+        }
+
+        long start = System.nanoTime();
+        Future<Void> drained = server.drain(Unpooled.copiedBuffer("bye", CharsetUtil.UTF_8),
+                600, TimeUnit.MILLISECONDS);
+
+        assertTrue(drained.await(5000));
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertEquals(CLIENTS * MESSAGES, received.get());
+        assertEquals(CLIENTS, goAways.get());
+        assertFalse(server.getServerChannel().isOpen());
+
+        // the last client is closed in the last third of the timeout
+        long last = 0;
+        for (long time : disconnects) {
+            last = Math.max(last, time);
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(last - start) >= 350);
+
+        for (TCPClient client : clients) {
+            client.release();
+        }
+        server.shutdown();
+    }
+
+    private static class Listener implements TCPListener {
+        @Override
+        public void onClientConnect(ChannelHandlerContext ctx) {
+        }
+
+        @Override
+        public void onClientDisconnect(ChannelHandlerContext ctx) {
+        }
+
+        @Override
+        public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+            ((ByteBuf) message).release();
+        }
+
+        @Override
+        public void onExceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.tcp;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TCPSessionRegistryTest {
+
+    @Test
+    public void testRegisterAndGet() {
+        TCPSessionRegistry registry = new TCPSessionRegistry();
+        EmbeddedChannel channel = new EmbeddedChannel();
+
+        TCPSession session = registry.register(42, channel);
+        session.attach("player");
+
+        assertSame(session, registry.get(42));
+        assertSame(session, registry.get(channel));
+        assertEquals("player", registry.get(42).getAttachment());
+        assertNull(registry.get(43));
+        assertEquals(1, registry.size());
+
+        channel.finish();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDuplicateId() {
+        TCPSessionRegistry registry = new TCPSessionRegistry();
+        registry.register(1, new EmbeddedChannel());
+        registry.register(1, new EmbeddedChannel());
+    }
+
+    @Test
+    public void testRemoveOnClose() {
+        TCPSessionRegistry registry = new TCPSessionRegistry();
+        EmbeddedChannel channel = new EmbeddedChannel();
+        registry.register(7, channel);
+
+        channel.close();
+
+        assertNull(registry.get(7));
+        assertNull(registry.get(channel));
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void testGrowAndRemove() {
+        TCPSessionRegistry registry = new TCPSessionRegistry();
+        List<EmbeddedChannel> channels = new ArrayList<>();
+
+        for (int i = 0; i < 1000; i++) {
+            EmbeddedChannel channel = new EmbeddedChannel();
+            channels.add(channel);
+            // ids that share their low bits
+            registry.register((long) i << 32, channel);
+        }
+
+        for (int i = 0; i < 1000; i += 2) {
+            assertSame(channels.get(i), registry.remove((long) i << 32).getChannel());
+        }
+
+        assertEquals(500, registry.size());
+        assertEquals(500, registry.getSessions().size());
+        for (int i = 0; i < 1000; i++) {
+            TCPSession session = registry.get((long) i << 32);
+
+            if (i % 2 == 0) {
+                assertNull(session);
+            } else {
+                assertSame(channels.get(i), session.getChannel());
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        TCPSessionRegistry registry = new TCPSessionRegistry();
+        registry.register(-1, new EmbeddedChannel());
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger misses = new AtomicInteger();
+
+        Thread reader = new Thread(() -> {
+            while (running.get()) {
+                if (registry.get(-1) == null) {
+                    misses.incrementAndGet();
+                }
+            }
+        });
+        reader.start();
+
+        for (int i = 0; i < 10000; i++) {
+            EmbeddedChannel channel = new EmbeddedChannel();
+            registry.register(i, channel);
+            channel.close();
+        }
+
+        running.set(false);
+        reader.join();
+        assertEquals(0, misses.get());
+        assertEquals(1, registry.size());
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.tcp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TopicRouterTest {
+
+    @Test
+    public void testExactTopic() {
+        TopicRouter router = new TopicRouter();
+        EmbeddedChannel subscriber = new EmbeddedChannel();
+        EmbeddedChannel other = new EmbeddedChannel();
+
+        assertTrue(router.subscribe(subscriber, "game.lobby"));
+        assertFalse(router.subscribe(subscriber, "game.lobby"));
+        router.subscribe(other, "game.chat");
+
+        ByteBuf message = Unpooled.copiedBuffer(new byte[]{1, 2, 3});
+        assertEquals(1, router.publish("game.lobby", message));
+
+        ByteBuf received = subscriber.readOutbound();
+        assertEquals(3, received.readableBytes());
+        assertNull(other.readOutbound());
+
+        // the subscribers share the buffer
+        received.release();
+        assertEquals(0, message.refCnt());
+
+        subscriber.finish();
+        other.finish();
+    }
+
+    @Test
+    public void testWildcards() {
+        TopicRouter router = new TopicRouter();
+        EmbeddedChannel single = new EmbeddedChannel();
+        EmbeddedChannel rest = new EmbeddedChannel();
+        EmbeddedChannel both = new EmbeddedChannel();
+
+        router.subscribe(single, "game.*.chat");
+        router.subscribe(rest, "game.#");
+        router.subscribe(both, "game.*.chat");
+        router.subscribe(both, "game.#");
+
+        assertEquals(3, router.publish("game.lobby.chat", Unpooled.buffer(1).writeByte(1)));
+        assertEquals(2, router.publish("game.lobby", Unpooled.buffer(1).writeByte(2)));
+        assertEquals(2, router.publish("game", Unpooled.buffer(1).writeByte(3)));
+        assertEquals(0, router.publish("lobby.chat", Unpooled.buffer(1).writeByte(4)));
+
+        assertEquals(1, ((ByteBuf) single.readOutbound()).readByte());
+        assertNull(single.readOutbound());
+        assertEquals(3, rest.outboundMessages().size());
+        // subscribed twice, but receives every message once
+        assertEquals(3, both.outboundMessages().size());
+
+        single.finish();
+        rest.finish();
+        both.finish();
+    }
+
+    @Test
+    public void testUnsubscribeOnClose() {
+        TopicRouter router = new TopicRouter();
+        EmbeddedChannel channel = new EmbeddedChannel();
+
+        router.subscribe(channel, "a");
+        router.subscribe(channel, "b.#");
+        assertEquals(2, router.getSubscriptions(channel).size());
+
+        channel.close();
+        channel.runPendingTasks();
+
+        assertTrue(router.getSubscribers("a").isEmpty());
+        assertTrue(router.getSubscribers("b.#").isEmpty());
+        assertEquals(0, router.publish("b.c", Unpooled.buffer(1).writeByte(1)));
+    }
+
+    @Test
+    public void testSeparateRouters() {
+        TopicRouter first = new TopicRouter();
+        TopicRouter second = new TopicRouter();
+        EmbeddedChannel channel = new EmbeddedChannel();
+
+        first.subscribe(channel, "a");
+        assertTrue(second.getSubscriptions(channel).isEmpty());
+        assertFalse(second.unsubscribe(channel, "a"));
+        assertTrue(second.subscribe(channel, "a"));
+
+        second.unsubscribeAll(channel);
+        assertEquals(1, first.getSubscribers("a").size());
+
+        channel.close();
+        channel.runPendingTasks();
+
+        assertTrue(first.getSubscriptions(channel).isEmpty());
+        assertTrue(first.getSubscribers("a").isEmpty());
+
+        // a closed channel is removed again right away
+        first.subscribe(channel, "b");
+        assertTrue(first.getSubscribers("b").isEmpty());
+        assertTrue(first.getSubscriptions(channel).isEmpty());
+    }
+
+    @Test
+    public void testUnsubscribe() {
+        TopicRouter router = new TopicRouter();
+        EmbeddedChannel channel = new EmbeddedChannel();
+
+        router.subscribe(channel, "a");
+        assertTrue(router.unsubscribe(channel, "a"));
+        assertFalse(router.unsubscribe(channel, "a"));
+        assertEquals(0, router.publish("a", Unpooled.buffer(1).writeByte(1)));
+
+        channel.finish();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidWildcard() {
+        new TopicRouter().subscribe(new EmbeddedChannel(), "a.#.b");
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ *    Copyright 2015 Ocarthon (Philip Standt)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.ocarthon.core.network.udp;
+
+import de.ocarthon.core.network.tcp.TCPListener;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.UnsupportedMessageTypeException;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UDPTest {
+    private static final int PORT = 24326;
+
+    @Test
+    public void testStalePacketsAreDropped() {
+        SequenceHandler handler = new SequenceHandler();
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+        channel.writeInbound(packet(5));
+        channel.writeInbound(packet(3));
+        channel.writeInbound(packet(5));
+        channel.writeInbound(packet(6));
+        channel.writeInbound(packet(Integer.MAX_VALUE));
+        channel.writeInbound(packet(Integer.MIN_VALUE));
+
+        assertEquals(5, ((ByteBuf) channel.readInbound()).readByte());
+        assertEquals(6, ((ByteBuf) channel.readInbound()).readByte());
+        ((ByteBuf) channel.readInbound()).release();
+        ((ByteBuf) channel.readInbound()).release();
+        assertNull(channel.readInbound());
+        assertEquals(2, handler.getDropped());
+
+        // a restarted sender is accepted again
+        channel.writeInbound(packet(0));
+        ((ByteBuf) channel.readInbound()).release();
+        channel.finish();
+    }
+
+    @Test
+    public void testEchoAndSessionExpiry() throws Exception {
+        BlockingQueue<String> events = new ArrayBlockingQueue<>(20);
+
+        UDPServer server = new UDPServer();
+        server.enableSequenceNumbers();
+        server.setSessionTimeout(200, TimeUnit.MILLISECONDS);
+        server.setListener(new Listener() {
+            @Override
+            public void onClientConnect(ChannelHandlerContext ctx) {
+                events.add("connect");
+            }
+
+            @Override
+            public void onClientDisconnect(ChannelHandlerContext ctx) {
+                events.add("disconnect");
+            }
+
+            @Override
+            public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+                ctx.writeAndFlush(message);
+            }
+        });
+        server.bind("127.0.0.1", PORT);
+
+        UDPClient client = new UDPClient();
+        client.enableSequenceNumbers();
+        client.setListener(new Listener() {
+            @Override
+            public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+                events.add(((ByteBuf) message).toString(CharsetUtil.UTF_8));
+                ((ByteBuf) message).release();
+            }
+        });
+        client.connect("127.0.0.1", PORT);
+
+        client.send(Unpooled.copiedBuffer("state", CharsetUtil.UTF_8));
+        assertEquals("connect", events.poll(5, TimeUnit.SECONDS));
+        assertEquals("state", events.poll(5, TimeUnit.SECONDS));
+        assertEquals(1, server.getSessions().size());
+
+        assertEquals("disconnect", events.poll(5, TimeUnit.SECONDS));
+        assertEquals(0, server.getSessions().size());
+
+        client.shutdown();
+        server.shutdown();
+    }
+
+    @Test
+    public void testMaxSessions() throws Exception {
+        BlockingQueue<String> events = new ArrayBlockingQueue<>(20);
+
+        UDPServer server = new UDPServer();
+        server.setMaxSessions(2);
+        server.setListener(new Listener() {
+            @Override
+            public void onClientDisconnect(ChannelHandlerContext ctx) {
+                events.add("disconnect");
+            }
+
+            @Override
+            public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+                events.add(((ByteBuf) message).toString(CharsetUtil.UTF_8));
+                ((ByteBuf) message).release();
+            }
+        });
+        server.bind("127.0.0.1", PORT);
+
+        UDPClient[] clients = new UDPClient[3];
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = new UDPClient();
+            clients[i].connect("127.0.0.1", PORT);
+            clients[i].send(Unpooled.copiedBuffer("client" + i, CharsetUtil.UTF_8));
+
+            if (i == 2) {
+                // the first client has been idle the longest and is replaced
+                assertEquals("disconnect", events.poll(5, TimeUnit.SECONDS));
+            }
+
+            assertEquals("client" + i, events.poll(5, TimeUnit.SECONDS));
+            Thread.sleep(10);
+        }
+
+        assertEquals(2, server.getSessions().size());
+        assertNull(server.getSession((InetSocketAddress) clients[0].getChannel().localAddress()));
+
+        for (UDPClient client : clients) {
+            client.shutdown();
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void testSessionChannel() throws Exception {
+        BlockingQueue<Object> events = new ArrayBlockingQueue<>(20);
+
+        UDPServer server = new UDPServer();
+        server.setListener(new Listener() {
+            @Override
+            public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+                ((ByteBuf) message).release();
+                events.add(ctx.channel().remoteAddress());
+
+                ctx.writeAndFlush("not a frame").addListener(f -> events.add(f.cause()));
+            }
+        });
+        server.bind("127.0.0.1", PORT);
+
+        UDPClient client = new UDPClient();
+        client.connect("127.0.0.1", PORT);
+        client.send(Unpooled.copiedBuffer("hello", CharsetUtil.UTF_8));
+
+        assertEquals(client.getChannel().localAddress(), events.poll(5, TimeUnit.SECONDS));
+        assertTrue(events.poll(5, TimeUnit.SECONDS) instanceof UnsupportedMessageTypeException);
+
+        client.shutdown();
+        server.shutdown();
+    }
+
+    private static ByteBuf packet(int sequence) {
+        return Unpooled.buffer().writeInt(sequence).writeByte(sequence);
+    }
+
+    private static class Listener implements TCPListener {
+        @Override
+        public void onClientConnect(ChannelHandlerContext ctx) {
+        }
+
+        @Override
+        public void onClientDisconnect(ChannelHandlerContext ctx) {
+        }
+
+        @Override
+        public void onMessageReceived(ChannelHandlerContext ctx, Object message) {
+        }
+
+        @Override
+        public void onExceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        }
+    }
+}